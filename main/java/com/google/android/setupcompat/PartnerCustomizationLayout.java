@@ -20,6 +20,7 @@ import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
 import android.content.ContextWrapper;
+import android.content.Intent;
 import android.content.res.TypedArray;
 import android.os.Build;
 import android.os.Build.VERSION;
@@ -29,13 +30,20 @@ import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
+import androidx.annotation.LayoutRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.setupcompat.internal.AsyncTemplateInflater;
+import com.google.android.setupcompat.internal.ClockProvider;
 import com.google.android.setupcompat.internal.LifecycleFragment;
 import com.google.android.setupcompat.internal.PersistableBundles;
 import com.google.android.setupcompat.internal.TemplateLayout;
 import com.google.android.setupcompat.logging.CustomEvent;
 import com.google.android.setupcompat.logging.MetricKey;
 import com.google.android.setupcompat.logging.SetupMetricsLogger;
+import com.google.android.setupcompat.logging.internal.FooterBarMixinMetrics;
 import com.google.android.setupcompat.partnerconfig.PartnerConfigHelper;
 import com.google.android.setupcompat.template.FooterBarMixin;
 import com.google.android.setupcompat.template.FooterButton;
@@ -43,7 +51,9 @@ import com.google.android.setupcompat.template.StatusBarMixin;
 import com.google.android.setupcompat.template.SystemNavBarMixin;
 import com.google.android.setupcompat.util.BuildCompatUtils;
 import com.google.android.setupcompat.util.Logger;
+import com.google.android.setupcompat.util.ScreenTransitionTracker;
 import com.google.android.setupcompat.util.WizardManagerHelper;
+import java.util.concurrent.TimeUnit;
 
 /** A templatization layout with consistent style used in Setup Wizard or app itself. */
 public class PartnerCustomizationLayout extends TemplateLayout {
@@ -71,6 +81,24 @@ public class PartnerCustomizationLayout extends TemplateLayout {
 
   private Activity activity;
 
+  private boolean attachedToWindow;
+
+  // Indices into phaseTimestampsNanos, in the order the phases complete.
+  private static final int PHASE_CONSTRUCTION_STARTED = 0;
+  private static final int PHASE_BEFORE_TEMPLATE_INFLATED = 1;
+  private static final int PHASE_TEMPLATE_INFLATED = 2;
+  private static final int PHASE_MIXINS_REGISTERED = 3;
+  private static final int PHASE_PARTNER_STYLED = 4;
+  private static final int PHASE_FIRST_DRAW = 5;
+  private static final int PHASE_COUNT = 6;
+
+  /**
+   * Timestamps at which each construction phase completed. This is created by {@link
+   * #onBeforeTemplateInflated}, which runs from the super constructor, so it must not have an
+   * initializer.
+   */
+  private long[] phaseTimestampsNanos;
+
   public PartnerCustomizationLayout(Context context) {
     this(context, 0, 0);
   }
@@ -117,7 +145,24 @@ public class PartnerCustomizationLayout extends TemplateLayout {
     registerMixin(
         StatusBarMixin.class, new StatusBarMixin(this, activity.getWindow(), attrs, defStyleAttr));
     registerMixin(SystemNavBarMixin.class, new SystemNavBarMixin(this, activity.getWindow()));
-    registerMixin(FooterBarMixin.class, new FooterBarMixin(this, attrs, defStyleAttr));
+    if (hasFooterBarAttributes(attrs)) {
+      // The footer bar is styled or declares its buttons in XML, which can only be read now.
+      registerMixin(FooterBarMixin.class, new FooterBarMixin(this, attrs, defStyleAttr));
+    } else {
+      // Without XML attributes of its own, the footer bar resolves the same style from the theme
+      // and defStyleAttr alone, so it is only created once the screen uses it.
+      registerMixin(
+          FooterBarMixin.class,
+          () -> {
+            FooterBarMixin footerBarMixin = new FooterBarMixin(this, null, defStyleAttr);
+            if (attachedToWindow) {
+              footerBarMixin.onAttachedToWindow();
+            }
+            return footerBarMixin;
+          });
+    }
+
+    markPhase(PHASE_MIXINS_REGISTERED);
 
     getMixin(SystemNavBarMixin.class).applyPartnerCustomizations(attrs, defStyleAttr);
 
@@ -129,6 +174,111 @@ public class PartnerCustomizationLayout extends TemplateLayout {
       activity.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_TRANSLUCENT_STATUS);
       activity.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_TRANSLUCENT_NAVIGATION);
     }
+
+    markPhase(PHASE_PARTNER_STYLED);
+    getViewTreeObserver()
+        .addOnPreDrawListener(
+            new ViewTreeObserver.OnPreDrawListener() {
+              @Override
+              public boolean onPreDraw() {
+                getViewTreeObserver().removeOnPreDrawListener(this);
+                markPhase(PHASE_FIRST_DRAW);
+                logFirstDrawPhases();
+                logScreenTransition();
+                return true;
+              }
+            });
+  }
+
+  /**
+   * Returns whether {@code attrs} sets a style or any attribute read by {@link FooterBarMixin}.
+   */
+  private static boolean hasFooterBarAttributes(@Nullable AttributeSet attrs) {
+    if (attrs == null) {
+      return false;
+    }
+    if (attrs.getStyleAttribute() != 0) {
+      return true;
+    }
+    for (int i = 0; i < attrs.getAttributeCount(); i++) {
+      int attr = attrs.getAttributeNameResource(i);
+      for (int footerBarAttr : R.styleable.SucFooterBarMixin) {
+        if (attr == footerBarAttr) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  protected void onTemplateInflated() {
+    super.onTemplateInflated();
+    markPhase(PHASE_TEMPLATE_INFLATED);
+  }
+
+  private void markPhase(int phase) {
+    if (phaseTimestampsNanos != null) {
+      phaseTimestampsNanos[phase] = ClockProvider.timeInNanos();
+    }
+  }
+
+  /**
+   * Logs the duration of each construction phase up to the first drawn frame as one {@code
+   * LayoutFirstDraw} custom event, when running in setup wizard.
+   */
+  private void logFirstDrawPhases() {
+    if (phaseTimestampsNanos == null
+        || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+        || !WizardManagerHelper.isAnySetupWizard(activity.getIntent())) {
+      return;
+    }
+    for (long timestamp : phaseTimestampsNanos) {
+      if (timestamp == 0) {
+        // A subclass skipped one of the phase callbacks, the durations would be meaningless.
+        return;
+      }
+    }
+    PersistableBundle phases = new PersistableBundle();
+    phases.putLong("beforeInflationMs", phaseMillis(PHASE_BEFORE_TEMPLATE_INFLATED));
+    phases.putLong("templateInflationMs", phaseMillis(PHASE_TEMPLATE_INFLATED));
+    phases.putLong("mixinRegistrationMs", phaseMillis(PHASE_MIXINS_REGISTERED));
+    phases.putLong("partnerStylingMs", phaseMillis(PHASE_PARTNER_STYLED));
+    phases.putLong("firstDrawMs", phaseMillis(PHASE_FIRST_DRAW));
+    phases.putLong(
+        "timeToFirstDrawMs",
+        TimeUnit.NANOSECONDS.toMillis(
+            phaseTimestampsNanos[PHASE_FIRST_DRAW]
+                - phaseTimestampsNanos[PHASE_CONSTRUCTION_STARTED]));
+    SetupMetricsLogger.logCustomEvent(
+        getContext(), CustomEvent.create(MetricKey.get("LayoutFirstDraw", activity), phases));
+  }
+
+  /**
+   * Logs the latency from the footer button click on the previous screen to the first frame of
+   * this screen as a {@code ScreenTransition} custom event, when the click was carried over by
+   * {@link WizardManagerHelper#getNextIntent}.
+   */
+  private void logScreenTransition() {
+    Intent intent = activity.getIntent();
+    long latencyMillis = ScreenTransitionTracker.consumeClickLatencyMillis(intent);
+    if (latencyMillis < 0 || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+      return;
+    }
+    String sourceScreen = ScreenTransitionTracker.getSourceScreen(intent);
+    PersistableBundle transition = new PersistableBundle();
+    transition.putLong("clickToFirstFrameMs", latencyMillis);
+    transition.putString(
+        "sourceScreen",
+        CustomEvent.trimsStringOverMaxLength(sourceScreen != null ? sourceScreen : "unknown"));
+    SetupMetricsLogger.logCustomEvent(
+        getContext(), CustomEvent.create(MetricKey.get("ScreenTransition", activity), transition));
+  }
+
+  /** Returns the time between the completion of {@code phase} and of the phase before it. */
+  private long phaseMillis(int phase) {
+    return TimeUnit.NANOSECONDS.toMillis(
+        phaseTimestampsNanos[phase] - phaseTimestampsNanos[phase - 1]);
   }
 
   @Override
@@ -148,6 +298,9 @@ public class PartnerCustomizationLayout extends TemplateLayout {
   @Override
   protected void onBeforeTemplateInflated(AttributeSet attrs, int defStyleAttr) {
 
+    phaseTimestampsNanos = new long[PHASE_COUNT];
+    markPhase(PHASE_CONSTRUCTION_STARTED);
+
     // Sets default value to true since this timing
     // before PartnerCustomization members initialization
     usePartnerResourceAttr = true;
@@ -189,6 +342,7 @@ public class PartnerCustomizationLayout extends TemplateLayout {
             + useDynamicColor
             + " useFullDynamicColorAttr="
             + useFullDynamicColorAttr);
+    markPhase(PHASE_BEFORE_TEMPLATE_INFLATED);
   }
 
   @Override
@@ -203,36 +357,76 @@ public class PartnerCustomizationLayout extends TemplateLayout {
   protected void onAttachedToWindow() {
     super.onAttachedToWindow();
     LifecycleFragment.attachNow(activity);
-    getMixin(FooterBarMixin.class).onAttachedToWindow();
+    attachedToWindow = true;
+    // A footer bar that is not created yet logs its initial state when it is created.
+    FooterBarMixin footerBarMixin = peekMixin(FooterBarMixin.class);
+    if (footerBarMixin != null) {
+      footerBarMixin.onAttachedToWindow();
+    }
   }
 
   @Override
   protected void onDetachedFromWindow() {
     super.onDetachedFromWindow();
+    FooterBarMixin footerBarMixin = peekMixin(FooterBarMixin.class);
     if (VERSION.SDK_INT >= VERSION_CODES.LOLLIPOP
         && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
         && WizardManagerHelper.isAnySetupWizard(activity.getIntent())) {
-      FooterBarMixin footerBarMixin = getMixin(FooterBarMixin.class);
-      footerBarMixin.onDetachedFromWindow();
-      FooterButton primaryButton = footerBarMixin.getPrimaryButton();
-      FooterButton secondaryButton = footerBarMixin.getSecondaryButton();
-      PersistableBundle primaryButtonMetrics =
-          primaryButton != null
-              ? primaryButton.getMetrics("PrimaryFooterButton")
-              : PersistableBundle.EMPTY;
-      PersistableBundle secondaryButtonMetrics =
-          secondaryButton != null
-              ? secondaryButton.getMetrics("SecondaryFooterButton")
-              : PersistableBundle.EMPTY;
-
-      PersistableBundle persistableBundle =
-          PersistableBundles.mergeBundles(
-              footerBarMixin.getLoggingMetrics(), primaryButtonMetrics, secondaryButtonMetrics);
+      PersistableBundle persistableBundle;
+      if (footerBarMixin != null) {
+        footerBarMixin.onDetachedFromWindow();
+        FooterButton primaryButton = footerBarMixin.getPrimaryButton();
+        FooterButton secondaryButton = footerBarMixin.getSecondaryButton();
+        PersistableBundle primaryButtonMetrics =
+            primaryButton != null
+                ? primaryButton.getMetrics("PrimaryFooterButton")
+                : PersistableBundle.EMPTY;
+        PersistableBundle secondaryButtonMetrics =
+            secondaryButton != null
+                ? secondaryButton.getMetrics("SecondaryFooterButton")
+                : PersistableBundle.EMPTY;
+
+        persistableBundle =
+            PersistableBundles.mergeBundles(
+                footerBarMixin.getLoggingMetrics(), primaryButtonMetrics, secondaryButtonMetrics);
+      } else {
+        // The screen never used the footer bar, log it as showing no buttons without creating it.
+        FooterBarMixinMetrics footerBarMetrics = new FooterBarMixinMetrics();
+        footerBarMetrics.logPrimaryButtonInitialStateVisibility(
+            /* isVisible= */ false, /* isUsingXml= */ false);
+        footerBarMetrics.logSecondaryButtonInitialStateVisibility(
+            /* isVisible= */ false, /* isUsingXml= */ false);
+        footerBarMetrics.updateButtonVisibility(
+            /* isPrimaryButtonVisible= */ false, /* isSecondaryButtonVisible= */ false);
+        persistableBundle = footerBarMetrics.getMetrics();
+      }
 
       SetupMetricsLogger.logCustomEvent(
           getContext(),
           CustomEvent.create(MetricKey.get("SetupCompatMetrics", activity), persistableBundle));
     }
+    if (footerBarMixin != null
+        && (activity.isFinishing() || activity.isChangingConfigurations())) {
+      footerBarMixin.releasePooledButtons();
+    }
+    attachedToWindow = false;
+  }
+
+  /**
+   * Sets {@code layoutResId}, whose root is a {@link PartnerCustomizationLayout} with the default
+   * template, as the content view of {@code activity} without inflating the template on the main
+   * thread. {@code placeholder} is shown until the content view is set, after which {@code
+   * listener} is called on the main thread. Must be called on the main thread.
+   *
+   * @see AsyncTemplateInflater
+   */
+  public static void setContentViewAsync(
+      @NonNull Activity activity,
+      @LayoutRes int layoutResId,
+      @Nullable View placeholder,
+      @NonNull AsyncTemplateInflater.OnContentViewReadyListener listener) {
+    AsyncTemplateInflater.setContentViewAsync(
+        activity, layoutResId, R.layout.partner_customization_layout, placeholder, listener);
   }
 
   public static Activity lookupActivityFromContext(Context context) {
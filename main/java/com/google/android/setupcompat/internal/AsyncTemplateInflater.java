@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.internal;
+
+import android.app.Activity;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.FrameLayout;
+import androidx.annotation.LayoutRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.setupcompat.partnerconfig.PartnerConfigHelper;
+import com.google.android.setupcompat.util.Logger;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sets the content view of an activity without inflating its template on the main thread.
+ *
+ * <p>The template XML is inflated on a background thread while the partner configs are loaded on
+ * another. Once both are done, the content view is set on the main thread, where the template
+ * layout picks up the inflated template instead of inflating it again, and registers its mixins
+ * and applies window styling as usual. Until then an optional placeholder is shown.
+ *
+ * <p>If the template cannot be inflated in the background, or the template layout uses another
+ * template or context, the template is inflated synchronously as if this class was not used.
+ */
+public final class AsyncTemplateInflater {
+
+  private static final Logger LOG = new Logger("AsyncTemplateInflater");
+
+  /** Callback invoked on the main thread once the content view of the activity is set. */
+  public interface OnContentViewReadyListener {
+    void onContentViewReady(@NonNull Activity activity);
+  }
+
+  /**
+   * Shows {@code placeholder}, if any, and asynchronously sets {@code layoutResId} as the content
+   * view of {@code activity}. Must be called on the main thread.
+   *
+   * @param template the template the template layout in {@code layoutResId} inflates
+   */
+  public static void setContentViewAsync(
+      @NonNull Activity activity,
+      @LayoutRes int layoutResId,
+      @LayoutRes int template,
+      @Nullable View placeholder,
+      @NonNull OnContentViewReadyListener listener) {
+    Preconditions.ensureOnMainThread("setContentViewAsync");
+    Preconditions.checkNotNull(activity, "Activity cannot be null.");
+    Preconditions.checkNotNull(listener, "OnContentViewReadyListener cannot be null.");
+    if (placeholder != null) {
+      activity.setContentView(placeholder);
+    }
+
+    Handler mainHandler = new Handler(Looper.getMainLooper());
+    AtomicInteger pendingSteps = new AtomicInteger(2);
+    View[] templateRoot = new View[1];
+    Runnable onStepDone =
+        () -> {
+          if (pendingSteps.decrementAndGet() == 0) {
+            mainHandler.post(
+                () -> finish(activity, layoutResId, template, templateRoot[0], listener));
+          }
+        };
+
+    try {
+      ExecutorProvider.setupCompatLayoutLoader
+          .get()
+          .execute(
+              () -> {
+                templateRoot[0] = inflateTemplate(activity, template);
+                onStepDone.run();
+              });
+      ExecutorProvider.setupCompatLayoutLoader
+          .get()
+          .execute(
+              () -> {
+                PartnerConfigHelper.get(activity);
+                onStepDone.run();
+              });
+    } catch (RejectedExecutionException e) {
+      LOG.e("Failed to load layout in background, falling back to the main thread.", e);
+      finish(activity, layoutResId, template, /* templateRoot= */ null, listener);
+    }
+  }
+
+  @Nullable
+  private static View inflateTemplate(Activity activity, @LayoutRes int template) {
+    try {
+      // LayoutInflater is not thread safe and the activity's instance may be inflating on the main
+      // thread at the same time, so inflate with a clone of it. The throwaway parent only provides
+      // the layout params a TemplateLayout would generate.
+      return LayoutInflater.from(activity)
+          .cloneInContext(activity)
+          .inflate(template, new FrameLayout(activity), false);
+    } catch (RuntimeException e) {
+      LOG.e("Failed to inflate template in background.", e);
+      return null;
+    }
+  }
+
+  private static void finish(
+      Activity activity,
+      @LayoutRes int layoutResId,
+      @LayoutRes int template,
+      @Nullable View templateRoot,
+      OnContentViewReadyListener listener) {
+    if (activity.isFinishing()
+        || (VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN_MR1 && activity.isDestroyed())) {
+      return;
+    }
+    TemplateLayout.setPrefetchedTemplate(activity, template, templateRoot);
+    try {
+      activity.setContentView(layoutResId);
+    } finally {
+      // Drop the template if no template layout took it.
+      TemplateLayout.setPrefetchedTemplate(activity, template, null);
+    }
+    listener.onContentViewReady(activity);
+  }
+
+  private AsyncTemplateInflater() {
+    throw new AssertionError("Should not be instantiated");
+  }
+}
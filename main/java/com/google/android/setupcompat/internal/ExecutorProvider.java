@@ -21,6 +21,7 @@ import androidx.annotation.VisibleForTesting;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -29,11 +30,21 @@ import java.util.concurrent.TimeUnit;
  *
  * <p>It allows the executors to be mocked in Robolectric, redirecting to Robolectric's schedulers
  * rather than using real threads.
+ *
+ * <p>By default each provider runs its work on a dedicated thread. Host apps can instead route all
+ * library work onto their own executor with {@link #setHostExecutor(Executor)}, or consolidate it
+ * onto a single shared worker thread that exits when idle with {@link
+ * #setUseSharedWorker(boolean)}. The executor is resolved each time work is submitted, so a change
+ * takes effect from the next submitted task, e.g. the next drain of a scheduler lane. Work that is
+ * already queued still runs on the executor it was submitted to.
  */
 public final class ExecutorProvider<T extends Executor> {
 
   private static final int SETUP_METRICS_LOGGER_MAX_QUEUED = 50;
   private static final int SETUP_COMPAT_BINDBACK_MAX_QUEUED = 1;
+  private static final int SETUP_COMPAT_LAYOUT_LOADER_THREADS = 2;
+  private static final int SETUP_COMPAT_LAYOUT_LOADER_MAX_QUEUED = 4;
+  private static final long SETUP_COMPAT_LAYOUT_LOADER_KEEP_ALIVE_SECONDS = 30;
   /**
    * Creates a single threaded {@link ExecutorService} with a maximum pool size {@code maxSize}.
    * Jobs submitted when the pool is full causes {@link
@@ -48,6 +59,27 @@ public final class ExecutorProvider<T extends Executor> {
           createSizeBoundedExecutor(
               "SetupBindbackServiceExecutor", SETUP_COMPAT_BINDBACK_MAX_QUEUED));
 
+  /**
+   * Runs the background steps of {@link AsyncTemplateInflater} on two threads, so that template
+   * inflation and partner config loading overlap. It has its own threads since inflation must not
+   * queue behind calls waiting for SetupWizard, so it is used through {@link #get()} and is not
+   * routed to the host executor or the shared worker. Like the shared worker, its threads exit
+   * when idle and are restarted on demand.
+   */
+  public static final ExecutorProvider<ExecutorService> setupCompatLayoutLoader =
+      new ExecutorProvider<>(
+          createIdleExitingExecutor(
+              "SetupCompatLayoutLoader",
+              SETUP_COMPAT_LAYOUT_LOADER_THREADS,
+              SETUP_COMPAT_LAYOUT_LOADER_MAX_QUEUED,
+              SETUP_COMPAT_LAYOUT_LOADER_KEEP_ALIVE_SECONDS));
+
+  private static final long SHARED_WORKER_KEEP_ALIVE_SECONDS = 30;
+
+  @Nullable private static volatile Executor hostExecutor;
+  private static volatile boolean useSharedWorker = false;
+  @Nullable private static ExecutorService sharedWorker;
+
   private final T executor;
 
   @Nullable private T injectedExecutor;
@@ -63,6 +95,62 @@ public final class ExecutorProvider<T extends Executor> {
     return executor;
   }
 
+  /**
+   * Returns the executor library work of this provider should be submitted to. In order of
+   * precedence this is the executor injected for testing, the host executor, the shared worker, or
+   * the dedicated executor of this provider.
+   */
+  public Executor getExecutor() {
+    if (injectedExecutor != null) {
+      return injectedExecutor;
+    }
+    Executor host = hostExecutor;
+    if (host != null) {
+      return host;
+    }
+    if (useSharedWorker) {
+      return getSharedWorker();
+    }
+    return executor;
+  }
+
+  /**
+   * Routes the work of every provider onto {@code executor}, so the library does not start any
+   * thread of its own other than the {@link #setupCompatLayoutLoader} threads. The executor should
+   * not run tasks on the main thread, since they block while waiting for SetupWizard. Pass {@code
+   * null} to go back to the library's own threads.
+   */
+  public static void setHostExecutor(@Nullable Executor executor) {
+    hostExecutor = executor;
+  }
+
+  /**
+   * Sets whether the work of every provider should run on a single shared worker thread instead of
+   * one dedicated thread per provider. The shared worker exits after {@link
+   * #SHARED_WORKER_KEEP_ALIVE_SECONDS} without work and is restarted on demand. Ignored while a
+   * host executor is set.
+   */
+  public static void setUseSharedWorker(boolean useSharedWorker) {
+    ExecutorProvider.useSharedWorker = useSharedWorker;
+  }
+
+  private static synchronized Executor getSharedWorker() {
+    if (sharedWorker == null) {
+      ThreadPoolExecutor worker =
+          new ThreadPoolExecutor(
+              /* corePoolSize= */ 1,
+              /* maximumPoolSize= */ 1,
+              SHARED_WORKER_KEEP_ALIVE_SECONDS,
+              TimeUnit.SECONDS,
+              // Each scheduler lane queues at most one drain task, which bounds this queue.
+              new LinkedBlockingQueue<>(),
+              runnable -> new Thread(runnable, "SetupCompatSharedWorker"));
+      worker.allowCoreThreadTimeOut(true);
+      sharedWorker = worker;
+    }
+    return sharedWorker;
+  }
+
   /**
    * Injects an executor for testing use for this provider. Subsequent calls to {@link #get} will
    * return this instance instead, until {@link #resetExecutors()} is called.
@@ -87,4 +175,18 @@ public final class ExecutorProvider<T extends Executor> {
         new ArrayBlockingQueue<>(maxSize),
         runnable -> new Thread(runnable, threadName));
   }
+
+  private static ExecutorService createIdleExitingExecutor(
+      String threadName, int threadCount, int maxSize, long keepAliveSeconds) {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            /* corePoolSize= */ threadCount,
+            /* maximumPoolSize= */ threadCount,
+            keepAliveSeconds,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(maxSize),
+            runnable -> new Thread(runnable, threadName));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.internal;
+
+import android.annotation.TargetApi;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PersistableBundle;
+import android.view.FrameMetrics;
+import android.view.Window;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.setupcompat.util.Logger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the frame statistics of a window while it is tracked: the number of frames, of slow
+ * frames that missed a 60 Hz vsync, of frozen frames, and a coarse frame duration histogram.
+ * Frame metrics are delivered on a shared background thread so that the UI thread only pays for
+ * registering the listener.
+ *
+ * <p>When that thread falls behind, the platform drops frame reports. Their durations are unknown,
+ * so they are counted separately as {@code droppedFrameReportCount} rather than in the other
+ * statistics. The total number of frames is {@code frameCount + droppedFrameReportCount}.
+ */
+@TargetApi(VERSION_CODES.N)
+class FrameStatsCollector implements Window.OnFrameMetricsAvailableListener {
+
+  private static final Logger LOG = new Logger("FrameStatsCollector");
+
+  @VisibleForTesting static final long SLOW_FRAME_MS = 16;
+  @VisibleForTesting static final long FROZEN_FRAME_MS = 700;
+
+  /** Upper bounds, inclusive, of the frame duration buckets in milliseconds. */
+  @VisibleForTesting
+  static final long[] FRAME_DURATION_BUCKET_BOUNDS_MS = {8, 16, 33, 50, 100, 250, 700};
+
+  private static Handler frameMetricsHandler;
+
+  private Window trackedWindow;
+
+  // Fields below are guarded by "this", they are written on the frame metrics thread.
+  private int frameCount;
+  private int slowFrameCount;
+  private int frozenFrameCount;
+  private int droppedFrameReportCount;
+  private final int[] frameDurationCounts = new int[FRAME_DURATION_BUCKET_BOUNDS_MS.length + 1];
+
+  /** Starts collecting the frames of {@code window}. Must be called on the main thread. */
+  void startTracking(Window window) {
+    stopTracking();
+    try {
+      window.addOnFrameMetricsAvailableListener(this, getFrameMetricsHandler());
+      trackedWindow = window;
+    } catch (IllegalStateException e) {
+      // Thrown when the window is not hardware accelerated.
+      LOG.w("Frame metrics are not available: " + e.getMessage());
+    }
+  }
+
+  /** Stops collecting frames. Must be called on the main thread. */
+  void stopTracking() {
+    if (trackedWindow == null) {
+      return;
+    }
+    try {
+      trackedWindow.removeOnFrameMetricsAvailableListener(this);
+    } catch (IllegalArgumentException e) {
+      LOG.w("Frame metrics listener was already removed: " + e.getMessage());
+    }
+    trackedWindow = null;
+  }
+
+  @Override
+  public void onFrameMetricsAvailable(
+      Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation) {
+    long durationMillis =
+        TimeUnit.NANOSECONDS.toMillis(frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION));
+    synchronized (this) {
+      droppedFrameReportCount += dropCountSinceLastInvocation;
+      frameCount++;
+      if (durationMillis > SLOW_FRAME_MS) {
+        slowFrameCount++;
+      }
+      if (durationMillis > FROZEN_FRAME_MS) {
+        frozenFrameCount++;
+      }
+      int bucket = 0;
+      while (bucket < FRAME_DURATION_BUCKET_BOUNDS_MS.length
+          && durationMillis > FRAME_DURATION_BUCKET_BOUNDS_MS[bucket]) {
+        bucket++;
+      }
+      frameDurationCounts[bucket]++;
+    }
+  }
+
+  /**
+   * Writes the collected statistics into a bundle and resets them.
+   *
+   * @return the bundle, or {@code null} if no frame was collected.
+   */
+  synchronized PersistableBundle drainStats() {
+    if (frameCount == 0 && droppedFrameReportCount == 0) {
+      return null;
+    }
+    PersistableBundle stats = new PersistableBundle();
+    stats.putInt("frameCount", frameCount);
+    stats.putInt("slowFrameCount", slowFrameCount);
+    stats.putInt("frozenFrameCount", frozenFrameCount);
+    stats.putInt("droppedFrameReportCount", droppedFrameReportCount);
+    for (int i = 0; i < frameDurationCounts.length; i++) {
+      String key =
+          i < FRAME_DURATION_BUCKET_BOUNDS_MS.length
+              ? "framesUpTo" + FRAME_DURATION_BUCKET_BOUNDS_MS[i] + "Ms"
+              : "framesOver" + FRAME_DURATION_BUCKET_BOUNDS_MS[i - 1] + "Ms";
+      stats.putInt(key, frameDurationCounts[i]);
+      frameDurationCounts[i] = 0;
+    }
+    frameCount = 0;
+    slowFrameCount = 0;
+    frozenFrameCount = 0;
+    droppedFrameReportCount = 0;
+    return stats;
+  }
+
+  private static synchronized Handler getFrameMetricsHandler() {
+    if (frameMetricsHandler == null) {
+      HandlerThread frameMetricsThread = new HandlerThread("SetupCompatFrameMetrics");
+      frameMetricsThread.start();
+      frameMetricsHandler = new Handler(frameMetricsThread.getLooper());
+    }
+    return frameMetricsHandler;
+  }
+}
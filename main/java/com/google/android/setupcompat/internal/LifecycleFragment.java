@@ -37,6 +37,8 @@ public class LifecycleFragment extends Fragment {
   private static final String FRAGMENT_ID = "lifecycle_monitor";
 
   private MetricKey metricKey;
+  private MetricKey screenActivityMetricKey;
+  private FrameStatsCollector frameStatsCollector;
   private long startInNanos;
   private long durationInNanos = 0;
 
@@ -90,12 +92,18 @@ public class LifecycleFragment extends Fragment {
   public void onAttach(Context context) {
     super.onAttach(context);
     metricKey = MetricKey.get("ScreenDuration", getActivity());
+    screenActivityMetricKey = MetricKey.get("ScreenActivity", getActivity());
   }
 
   @Override
   public void onDetach() {
     super.onDetach();
     SetupMetricsLogger.logDuration(getActivity(), metricKey, NANOSECONDS.toMillis(durationInNanos));
+    logFrameStats();
+    if (SetupMetricsLogger.isDurationHistogramEnabled()) {
+      SetupMetricsLogger.flushDurationHistograms(getActivity());
+    }
+    SetupMetricsLogger.flushSamplingReport(getActivity());
   }
 
   @Override
@@ -103,12 +111,33 @@ public class LifecycleFragment extends Fragment {
     super.onResume();
     startInNanos = ClockProvider.timeInNanos();
     logScreenResume();
+    if (SetupMetricsLogger.isFrameMetricsEnabled() && VERSION.SDK_INT >= VERSION_CODES.N) {
+      if (frameStatsCollector == null) {
+        frameStatsCollector = new FrameStatsCollector();
+      }
+      frameStatsCollector.startTracking(getActivity().getWindow());
+    }
   }
 
   @Override
   public void onPause() {
     super.onPause();
     durationInNanos += (ClockProvider.timeInNanos() - startInNanos);
+    if (frameStatsCollector != null) {
+      frameStatsCollector.stopTracking();
+    }
+  }
+
+  private void logFrameStats() {
+    if (frameStatsCollector == null || VERSION.SDK_INT < VERSION_CODES.Q) {
+      return;
+    }
+    PersistableBundle stats = frameStatsCollector.drainStats();
+    if (stats != null) {
+      SetupMetricsLogger.logCustomEvent(
+          getActivity(),
+          CustomEvent.create(MetricKey.get("ScreenFrameStats", getActivity()), stats));
+    }
   }
 
   private void logScreenResume() {
@@ -116,8 +145,7 @@ public class LifecycleFragment extends Fragment {
       PersistableBundle bundle = new PersistableBundle();
       bundle.putLong("onScreenResume", System.nanoTime());
       SetupMetricsLogger.logCustomEvent(
-          getActivity(),
-          CustomEvent.create(MetricKey.get("ScreenActivity", getActivity()), bundle));
+          getActivity(), CustomEvent.create(screenActivityMetricKey, bundle));
     }
   }
 }
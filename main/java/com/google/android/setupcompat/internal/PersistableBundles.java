@@ -52,7 +52,8 @@ public final class PersistableBundles {
       for (String key : bundle.keySet()) {
         Preconditions.checkArgument(
             !result.containsKey(key),
-            String.format("Found duplicate key [%s] while attempting to merge bundles.", key));
+            "Found duplicate key [%s] while attempting to merge bundles.",
+            key);
       }
       result.putAll(bundle);
     }
@@ -105,7 +106,9 @@ public final class PersistableBundles {
       Object value = persistableBundle.get(key);
       Preconditions.checkArgument(
           isSupportedDataType(value),
-          String.format("Unknown/unsupported data type [%s] for key %s", value, key));
+          "Unknown/unsupported data type [%s] for key %s",
+          value,
+          key);
     }
     return persistableBundle;
   }
@@ -24,6 +24,10 @@ import android.os.Looper;
  * <p>If the precondition is not met, the {@code Preconditions} method throws an unchecked exception
  * of a specified type, which helps the method in which the exception was thrown communicate that
  * its caller has made a mistake.
+ *
+ * <p>The overloads taking a message template and arguments only format the message when the check
+ * fails, so a passing check neither formats nor allocates. The template uses {@link
+ * String#format(String, Object...)} syntax.
  */
 public final class Preconditions {
 
@@ -34,6 +38,38 @@ public final class Preconditions {
     }
   }
 
+  /**
+   * Ensures the truth of an expression involving one or more parameters to the calling method, the
+   * error message is only formatted on failure.
+   */
+  public static void checkArgument(boolean expression, String errorMessageTemplate, Object arg1) {
+    if (!expression) {
+      throw new IllegalArgumentException(String.format(errorMessageTemplate, arg1));
+    }
+  }
+
+  /**
+   * Ensures the truth of an expression involving one or more parameters to the calling method, the
+   * error message is only formatted on failure.
+   */
+  public static void checkArgument(
+      boolean expression, String errorMessageTemplate, Object arg1, Object arg2) {
+    if (!expression) {
+      throw new IllegalArgumentException(String.format(errorMessageTemplate, arg1, arg2));
+    }
+  }
+
+  /**
+   * Ensures the truth of an expression involving one or more parameters to the calling method, the
+   * error message is only formatted on failure.
+   */
+  public static void checkArgument(
+      boolean expression, String errorMessageTemplate, Object arg1, Object arg2, Object arg3) {
+    if (!expression) {
+      throw new IllegalArgumentException(String.format(errorMessageTemplate, arg1, arg2, arg3));
+    }
+  }
+
   /**
    * Ensures the truth of an expression involving the state of the calling instance, but not
    * involving any parameters to the calling method.
@@ -44,6 +80,16 @@ public final class Preconditions {
     }
   }
 
+  /**
+   * Ensures the truth of an expression involving the state of the calling instance, the error
+   * message is only formatted on failure.
+   */
+  public static void checkState(boolean expression, String errorMessageTemplate, Object arg1) {
+    if (!expression) {
+      throw new IllegalStateException(String.format(errorMessageTemplate, arg1));
+    }
+  }
+
   /** Ensures that an object reference passed as a parameter to the calling method is not null. */
   public static <T> T checkNotNull(T reference, String errorMessage) {
     if (reference == null) {
@@ -52,6 +98,17 @@ public final class Preconditions {
     return reference;
   }
 
+  /**
+   * Ensures that an object reference passed as a parameter to the calling method is not null, the
+   * error message is only formatted on failure.
+   */
+  public static <T> T checkNotNull(T reference, String errorMessageTemplate, Object arg1) {
+    if (reference == null) {
+      throw new NullPointerException(String.format(errorMessageTemplate, arg1));
+    }
+    return reference;
+  }
+
   /**
    * Ensures that this method is called from the main thread, otherwise an exception will be thrown.
    */
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.internal;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.setupcompat.util.Logger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when {@link SetupCompatServiceProvider} is allowed to (re)bind to SetupCompatService.
+ * Consecutive failures, such as binder deaths, dead bindings and connection timeouts, push the next
+ * attempt back exponentially with jitter. Once {@link #FAILURE_THRESHOLD} failures happen in a row
+ * the circuit opens and every bind attempt is refused until {@link #OPEN_DURATION_MS} has passed,
+ * after which a single probing attempt is let through.
+ *
+ * <p>A successful connection closes the circuit, but the failures are only forgotten once the
+ * connection has stayed up for {@link #MIN_STABLE_CONNECTION_MS}. A service that keeps dying right
+ * after it connects therefore still opens the circuit.
+ */
+public class ReconnectPolicy {
+
+  private static final Logger LOG = new Logger("ReconnectPolicy");
+
+  /** The state of the circuit breaker guarding bind attempts. */
+  public enum CircuitState {
+    /** Bind attempts are allowed, subject to the current backoff delay. */
+    CLOSED,
+
+    /** Too many consecutive failures, bind attempts are refused until the cool down ends. */
+    OPEN,
+
+    /** The cool down ended, a single probing bind attempt is allowed. */
+    HALF_OPEN
+  }
+
+  /** Callback invoked whenever the {@link CircuitState} changes. */
+  public interface OnCircuitStateChangedListener {
+    void onCircuitStateChanged(CircuitState previousState, CircuitState newState);
+  }
+
+  @VisibleForTesting static final long INITIAL_BACKOFF_MS = 500;
+  @VisibleForTesting static final long MAX_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30);
+  @VisibleForTesting static final int FAILURE_THRESHOLD = 5;
+  @VisibleForTesting static final long OPEN_DURATION_MS = TimeUnit.MINUTES.toMillis(1);
+  @VisibleForTesting static final long MIN_STABLE_CONNECTION_MS = TimeUnit.SECONDS.toMillis(10);
+
+  private final Random random;
+
+  private CircuitState circuitState = CircuitState.CLOSED;
+  private int consecutiveFailures = 0;
+  private long nextAttemptAtMillis = 0;
+  private long openedAtMillis = 0;
+
+  /** When the bind attempt that has neither connected nor failed yet was granted, or -1. */
+  private long attemptStartedAtMillis = -1;
+
+  /** Whether a failure was recorded since the last granted attempt or successful connection. */
+  private boolean failureRecorded = false;
+
+  /** When the current connection was established, or -1 if there is no connection. */
+  private long connectedAtMillis = -1;
+
+  @Nullable private OnCircuitStateChangedListener listener;
+
+  public ReconnectPolicy() {
+    this(new Random());
+  }
+
+  @VisibleForTesting
+  ReconnectPolicy(Random random) {
+    this.random = random;
+  }
+
+  /**
+   * Registers a listener for circuit state changes, or clears it when {@code null}. The listener is
+   * called outside of the policy's lock.
+   */
+  public synchronized void setOnCircuitStateChangedListener(
+      @Nullable OnCircuitStateChangedListener listener) {
+    this.listener = listener;
+  }
+
+  /** Returns the current state of the circuit breaker. */
+  public synchronized CircuitState getCircuitState() {
+    return circuitState;
+  }
+
+  /** Returns the number of failures recorded since the last connection that stayed up. */
+  public synchronized int getConsecutiveFailures() {
+    resetFailuresIfConnectionStableLocked(ClockProvider.timeInMillis());
+    return consecutiveFailures;
+  }
+
+  /**
+   * Returns {@code true} if callers should fail fast instead of waiting for a connection, that is
+   * when the circuit is open and its cool down has not passed yet.
+   */
+  public synchronized boolean shouldFailFast() {
+    return circuitState == CircuitState.OPEN
+        && ClockProvider.timeInMillis() - openedAtMillis < OPEN_DURATION_MS;
+  }
+
+  /**
+   * Returns {@code true} if a bind attempt may be made now. When the open circuit's cool down has
+   * passed, the first caller is granted the probing attempt and the circuit becomes {@link
+   * CircuitState#HALF_OPEN}.
+   */
+  public boolean tryAcquireBindAttempt() {
+    Runnable notification;
+    boolean granted;
+    synchronized (this) {
+      CircuitState previousState = circuitState;
+      granted = tryAcquireBindAttemptLocked(ClockProvider.timeInMillis());
+      notification = getNotificationLocked(previousState);
+    }
+    runNotification(notification);
+    return granted;
+  }
+
+  /**
+   * Records that a caller waiting for a connection since {@code waitStartedAtMillis} timed out, and
+   * returns {@code true} if a new bind attempt may be made now.
+   *
+   * <p>If the caller waited for the whole of the pending bind attempt, that attempt is counted as
+   * failed, once however many callers time out on it. The backoff this failure schedules applies to
+   * the attempts after the one granted here.
+   */
+  public boolean onWaitTimedOut(long waitStartedAtMillis) {
+    Runnable notification;
+    boolean granted;
+    synchronized (this) {
+      CircuitState previousState = circuitState;
+      long now = ClockProvider.timeInMillis();
+      if (attemptStartedAtMillis < 0) {
+        granted = tryAcquireBindAttemptLocked(now);
+      } else if (attemptStartedAtMillis > waitStartedAtMillis) {
+        // A newer attempt started while the caller was waiting, give it its own time.
+        granted = false;
+      } else {
+        boolean allowed = circuitState == CircuitState.CLOSED && now >= nextAttemptAtMillis;
+        recordFailureLocked(now);
+        granted = allowed && circuitState == CircuitState.CLOSED;
+        if (granted) {
+          grantAttemptLocked(now);
+        }
+      }
+      notification = getNotificationLocked(previousState);
+    }
+    runNotification(notification);
+    return granted;
+  }
+
+  /**
+   * Records a successful connection, which closes the circuit and resets the backoff. The failure
+   * count is reset once the connection has stayed up for {@link #MIN_STABLE_CONNECTION_MS}.
+   */
+  public void onConnected() {
+    Runnable notification;
+    synchronized (this) {
+      CircuitState previousState = circuitState;
+      connectedAtMillis = ClockProvider.timeInMillis();
+      nextAttemptAtMillis = 0;
+      attemptStartedAtMillis = -1;
+      failureRecorded = false;
+      moveToState(CircuitState.CLOSED);
+      notification = getNotificationLocked(previousState);
+    }
+    runNotification(notification);
+  }
+
+  /**
+   * Records a failed or lost connection and schedules the earliest next bind attempt. The several
+   * callbacks reporting the same disconnect, such as a binder death followed by a dead binding, are
+   * counted as a single failure.
+   */
+  public void onConnectionFailed() {
+    Runnable notification;
+    synchronized (this) {
+      if (failureRecorded) {
+        return;
+      }
+      CircuitState previousState = circuitState;
+      recordFailureLocked(ClockProvider.timeInMillis());
+      notification = getNotificationLocked(previousState);
+    }
+    runNotification(notification);
+  }
+
+  private boolean tryAcquireBindAttemptLocked(long now) {
+    switch (circuitState) {
+      case CLOSED:
+        if (now < nextAttemptAtMillis) {
+          return false;
+        }
+        grantAttemptLocked(now);
+        return true;
+      case OPEN:
+        if (now - openedAtMillis < OPEN_DURATION_MS) {
+          return false;
+        }
+        moveToState(CircuitState.HALF_OPEN);
+        grantAttemptLocked(now);
+        return true;
+      case HALF_OPEN:
+        if (attemptStartedAtMillis >= 0) {
+          // The probe is still in flight.
+          return false;
+        }
+        grantAttemptLocked(now);
+        return true;
+    }
+    throw new IllegalStateException("Unknown circuit state = " + circuitState);
+  }
+
+  private void grantAttemptLocked(long now) {
+    attemptStartedAtMillis = now;
+    failureRecorded = false;
+  }
+
+  private void recordFailureLocked(long now) {
+    resetFailuresIfConnectionStableLocked(now);
+    connectedAtMillis = -1;
+    consecutiveFailures++;
+    attemptStartedAtMillis = -1;
+    failureRecorded = true;
+    if (circuitState == CircuitState.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD) {
+      openedAtMillis = now;
+      moveToState(CircuitState.OPEN);
+      return;
+    }
+    nextAttemptAtMillis = now + computeBackoffMillis(consecutiveFailures);
+  }
+
+  private void resetFailuresIfConnectionStableLocked(long now) {
+    if (connectedAtMillis >= 0 && now - connectedAtMillis >= MIN_STABLE_CONNECTION_MS) {
+      consecutiveFailures = 0;
+    }
+  }
+
+  /**
+   * Returns the backoff delay after {@code failures} consecutive failures. The delay doubles with
+   * every failure up to {@link #MAX_BACKOFF_MS}, and is then jittered uniformly over its upper half
+   * so that several clients do not retry in lockstep.
+   */
+  @VisibleForTesting
+  long computeBackoffMillis(int failures) {
+    long delay = INITIAL_BACKOFF_MS << Math.min(failures - 1, 16);
+    delay = Math.min(delay, MAX_BACKOFF_MS);
+    long half = delay / 2;
+    return half + (long) (random.nextDouble() * (delay - half));
+  }
+
+  private void moveToState(CircuitState newState) {
+    if (circuitState == newState) {
+      return;
+    }
+    CircuitState previousState = circuitState;
+    circuitState = newState;
+    LOG.atInfo(
+        String.format(
+            "Circuit state changed: %s -> %s after %s consecutive failures",
+            previousState, newState, consecutiveFailures));
+  }
+
+  /**
+   * Returns the call to the listener for a change from {@code previousState} to the current state,
+   * to be run once the lock is released, or null if there is nothing to notify.
+   */
+  @Nullable
+  private Runnable getNotificationLocked(CircuitState previousState) {
+    CircuitState newState = circuitState;
+    OnCircuitStateChangedListener currentListener = listener;
+    if (currentListener == null || newState == previousState) {
+      return null;
+    }
+    return () -> currentListener.onCircuitStateChanged(previousState, newState);
+  }
+
+  private static void runNotification(@Nullable Runnable notification) {
+    if (notification != null) {
+      notification.run();
+    }
+  }
+}
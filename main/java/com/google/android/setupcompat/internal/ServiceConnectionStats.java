@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.internal;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.android.setupcompat.internal.SetupCompatServiceProvider.State;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects connection lifecycle statistics of {@link SetupCompatServiceProvider}: time to the first
+ * connection, the latency distribution of waiting for a connection, state transition counts, and
+ * timeout and rebind counts. Snapshots also include the backlog and drop counts of the {@link
+ * SetupCompatServiceScheduler} lanes. All methods are thread-safe.
+ */
+public final class ServiceConnectionStats {
+
+  /** Upper bounds, exclusive, of the wait latency buckets in milliseconds. */
+  @VisibleForTesting
+  static final long[] WAIT_LATENCY_BUCKET_BOUNDS_MS = {
+    1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+  };
+
+  private static final int STATE_COUNT = State.values().length;
+
+  private final long createdAtNanos;
+  private long firstConnectNanos = -1;
+  private final long[] waitLatencyCounts = new long[WAIT_LATENCY_BUCKET_BOUNDS_MS.length + 1];
+  private final long[] transitionCounts = new long[STATE_COUNT * STATE_COUNT];
+  private long timeoutCount;
+  private long bindCount;
+  private long rebindCount;
+  private long idleUnbindCount;
+  private long idleReconnectCount;
+  private long idleReconnectTotalNanos;
+  private long idleReconnectStartNanos = -1;
+
+  ServiceConnectionStats() {
+    createdAtNanos = ClockProvider.timeInNanos();
+  }
+
+  synchronized void recordTransition(State from, State to) {
+    transitionCounts[from.ordinal() * STATE_COUNT + to.ordinal()]++;
+    long now = ClockProvider.timeInNanos();
+    if (to == State.CONNECTED && firstConnectNanos < 0) {
+      firstConnectNanos = now - createdAtNanos;
+    }
+    if (to == State.IDLE_UNBOUND) {
+      idleUnbindCount++;
+    } else if (from == State.IDLE_UNBOUND) {
+      // Reconnect cost is measured from the rebind triggered by the first call after idling.
+      idleReconnectStartNanos = now;
+    }
+    if (to == State.CONNECTED && idleReconnectStartNanos >= 0) {
+      idleReconnectCount++;
+      idleReconnectTotalNanos += now - idleReconnectStartNanos;
+      idleReconnectStartNanos = -1;
+    }
+  }
+
+  synchronized void recordWaitForConnection(long waitNanos, boolean timedOut) {
+    long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    int bucket = 0;
+    while (bucket < WAIT_LATENCY_BUCKET_BOUNDS_MS.length
+        && waitMillis >= WAIT_LATENCY_BUCKET_BOUNDS_MS[bucket]) {
+      bucket++;
+    }
+    waitLatencyCounts[bucket]++;
+    if (timedOut) {
+      timeoutCount++;
+    }
+  }
+
+  synchronized void recordBind(boolean isRebind) {
+    bindCount++;
+    if (isRebind) {
+      rebindCount++;
+    }
+  }
+
+  /** Returns an immutable copy of the statistics collected so far. */
+  public synchronized Snapshot snapshot() {
+    SetupCompatServiceScheduler scheduler = SetupCompatServiceInvoker.getSchedulerIfCreated();
+    Map<String, Long> transitions = new LinkedHashMap<>();
+    State[] states = State.values();
+    for (State from : states) {
+      for (State to : states) {
+        long count = transitionCounts[from.ordinal() * STATE_COUNT + to.ordinal()];
+        if (count > 0) {
+          transitions.put(from + "->" + to, count);
+        }
+      }
+    }
+    return new Snapshot(
+        firstConnectNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstConnectNanos),
+        waitLatencyCounts.clone(),
+        Collections.unmodifiableMap(transitions),
+        timeoutCount,
+        bindCount,
+        rebindCount,
+        idleUnbindCount,
+        idleReconnectCount,
+        TimeUnit.NANOSECONDS.toMillis(idleReconnectTotalNanos),
+        scheduler != null ? scheduler.getPendingValidationCount() : 0,
+        scheduler != null ? scheduler.getValidationDroppedCount() : 0,
+        scheduler != null ? scheduler.getValidationSupersededCount() : 0,
+        scheduler != null ? scheduler.getPendingTelemetryCount() : 0,
+        scheduler != null ? scheduler.getTelemetryDroppedCount() : 0);
+  }
+
+  /** Immutable view of {@link ServiceConnectionStats} at a point in time. */
+  public static final class Snapshot {
+    private final long timeToFirstConnectMillis;
+    private final long[] waitLatencyCounts;
+    private final Map<String, Long> transitionCounts;
+    private final long timeoutCount;
+    private final long bindCount;
+    private final long rebindCount;
+    private final long idleUnbindCount;
+    private final long idleReconnectCount;
+    private final long idleReconnectTotalMillis;
+    private final int pendingValidationCount;
+    private final long validationDroppedCount;
+    private final long validationSupersededCount;
+    private final int pendingTelemetryCount;
+    private final long telemetryDroppedCount;
+
+    private Snapshot(
+        long timeToFirstConnectMillis,
+        long[] waitLatencyCounts,
+        Map<String, Long> transitionCounts,
+        long timeoutCount,
+        long bindCount,
+        long rebindCount,
+        long idleUnbindCount,
+        long idleReconnectCount,
+        long idleReconnectTotalMillis,
+        int pendingValidationCount,
+        long validationDroppedCount,
+        long validationSupersededCount,
+        int pendingTelemetryCount,
+        long telemetryDroppedCount) {
+      this.timeToFirstConnectMillis = timeToFirstConnectMillis;
+      this.waitLatencyCounts = waitLatencyCounts;
+      this.transitionCounts = transitionCounts;
+      this.timeoutCount = timeoutCount;
+      this.bindCount = bindCount;
+      this.rebindCount = rebindCount;
+      this.idleUnbindCount = idleUnbindCount;
+      this.idleReconnectCount = idleReconnectCount;
+      this.idleReconnectTotalMillis = idleReconnectTotalMillis;
+      this.pendingValidationCount = pendingValidationCount;
+      this.validationDroppedCount = validationDroppedCount;
+      this.validationSupersededCount = validationSupersededCount;
+      this.pendingTelemetryCount = pendingTelemetryCount;
+      this.telemetryDroppedCount = telemetryDroppedCount;
+    }
+
+    /**
+     * Returns the time from creating the provider to its first connection, or -1 if it never
+     * connected.
+     */
+    public long getTimeToFirstConnectMillis() {
+      return timeToFirstConnectMillis;
+    }
+
+    /**
+     * Returns the number of waits for a connection per latency bucket. Bucket {@code i} counts the
+     * waits shorter than {@code getWaitLatencyBucketBoundsMillis()[i]}, the last bucket counts the
+     * waits of at least the last bound.
+     */
+    public long[] getWaitLatencyCounts() {
+      return waitLatencyCounts.clone();
+    }
+
+    /** Returns the exclusive upper bounds of the wait latency buckets, in milliseconds. */
+    public static long[] getWaitLatencyBucketBoundsMillis() {
+      return WAIT_LATENCY_BUCKET_BOUNDS_MS.clone();
+    }
+
+    /** Returns the number of each observed state transition, keyed by {@code "FROM->TO"}. */
+    public Map<String, Long> getTransitionCounts() {
+      return transitionCounts;
+    }
+
+    /** Returns the number of waits for a connection that timed out. */
+    public long getTimeoutCount() {
+      return timeoutCount;
+    }
+
+    /** Returns the number of calls made to {@code Context#bindService}. */
+    public long getBindCount() {
+      return bindCount;
+    }
+
+    /** Returns the number of calls to {@code Context#bindService} after the initial one. */
+    public long getRebindCount() {
+      return rebindCount;
+    }
+
+    /** Returns the number of times the connection was released after being idle. */
+    public long getIdleUnbindCount() {
+      return idleUnbindCount;
+    }
+
+    /** Returns the number of reconnections completed after an idle unbind. */
+    public long getIdleReconnectCount() {
+      return idleReconnectCount;
+    }
+
+    /** Returns the total time spent reconnecting after idle unbinds, in milliseconds. */
+    public long getIdleReconnectTotalMillis() {
+      return idleReconnectTotalMillis;
+    }
+
+    /** Returns the number of screen validations waiting to be delivered. */
+    public int getPendingValidationCount() {
+      return pendingValidationCount;
+    }
+
+    /** Returns the number of screen validations dropped because their lane was full. */
+    public long getValidationDroppedCount() {
+      return validationDroppedCount;
+    }
+
+    /** Returns the number of screen validations replaced by a newer one for the same screen. */
+    public long getValidationSupersededCount() {
+      return validationSupersededCount;
+    }
+
+    /** Returns the number of metric logging calls waiting to be delivered. */
+    public int getPendingTelemetryCount() {
+      return pendingTelemetryCount;
+    }
+
+    /** Returns the number of metric logging calls dropped because their lane was full. */
+    public long getTelemetryDroppedCount() {
+      return telemetryDroppedCount;
+    }
+
+    /** Writes a human readable form of this snapshot, prefixing each line with {@code prefix}. */
+    public void dump(String prefix, PrintWriter writer) {
+      writer.println(prefix + "SetupCompatService connection stats:");
+      writer.println(prefix + "  timeToFirstConnectMillis=" + timeToFirstConnectMillis);
+      writer.println(
+          prefix
+              + "  waitLatencyBucketBoundsMillis="
+              + Arrays.toString(WAIT_LATENCY_BUCKET_BOUNDS_MS));
+      writer.println(prefix + "  waitLatencyCounts=" + Arrays.toString(waitLatencyCounts));
+      writer.println(prefix + "  transitionCounts=" + transitionCounts);
+      writer.println(prefix + "  timeoutCount=" + timeoutCount);
+      writer.println(prefix + "  bindCount=" + bindCount + " rebindCount=" + rebindCount);
+      writer.println(
+          prefix
+              + "  idleUnbindCount="
+              + idleUnbindCount
+              + " idleReconnectCount="
+              + idleReconnectCount
+              + " idleReconnectTotalMillis="
+              + idleReconnectTotalMillis);
+      writer.println(
+          prefix
+              + "  validationLane pending="
+              + pendingValidationCount
+              + " dropped="
+              + validationDroppedCount
+              + " superseded="
+              + validationSupersededCount);
+      writer.println(
+          prefix
+              + "  telemetryLane pending="
+              + pendingTelemetryCount
+              + " dropped="
+              + telemetryDroppedCount);
+    }
+  }
+}
@@ -20,21 +20,22 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.os.Bundle;
 import android.os.RemoteException;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import com.google.android.setupcompat.ISetupCompatService;
 import com.google.android.setupcompat.logging.internal.SetupMetricsLoggingConstants.MetricType;
 import com.google.android.setupcompat.util.Logger;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
- * This class is responsible for safely executing methods on SetupCompatService. To avoid memory
- * issues due to backed up queues, an upper bound of {@link
- * ExecutorProvider#SETUP_METRICS_LOGGER_MAX_QUEUED} is set on the logging executor service's queue
- * and {@link ExecutorProvider#SETUP_COMPAT_BINDBACK_MAX_QUEUED} on the overall executor service.
- * Once the upper bound is reached, metrics published after this event are dropped silently.
+ * This class is responsible for safely executing methods on SetupCompatService. Calls are
+ * scheduled by {@link SetupCompatServiceScheduler} on two lanes: screen validation (bind back),
+ * which is coalesced per screen and always served first, and metric logging, which is deferred
+ * while a validation is pending. To avoid memory issues due to backed up queues, an upper bound of
+ * {@link #MAX_QUEUED_METRICS} is set on the metric lane and {@link #MAX_QUEUED_VALIDATIONS} on the
+ * validation lane. Once the upper bound is reached, metrics published after this event are dropped
+ * and the oldest pending validation is dropped in favor of the newest screen.
  *
  * <p>NOTE: This class is not meant to be used directly. Please use {@link
  * com.google.android.setupcompat.logging.SetupMetricsLogger} for publishing metric events.
@@ -45,18 +46,14 @@ public class SetupCompatServiceInvoker {
 
   @SuppressLint("DefaultLocale")
   public void logMetricEvent(@MetricType int metricType, Bundle args) {
-    try {
-      loggingExecutor.execute(() -> invokeLogMetric(metricType, args));
-    } catch (RejectedExecutionException e) {
-      LOG.e(String.format("Metric of type %d dropped since queue is full.", metricType), e);
+    if (!scheduler.submitTelemetry(() -> invokeLogMetric(metricType, args))) {
+      LOG.e(String.format("Metric of type %d dropped since queue is full.", metricType));
     }
   }
 
   public void bindBack(String screenName, Bundle bundle) {
-    try {
-      setupCompatExecutor.execute(() -> invokeBindBack(screenName, bundle));
-    } catch (RejectedExecutionException e) {
-      LOG.e(String.format("Screen %s bind back fail.", screenName), e);
+    if (!scheduler.submitValidation(screenName, () -> invokeBindBack(screenName, bundle))) {
+      LOG.e(String.format("Screen %s bind back fail.", screenName));
     }
   }
 
@@ -95,15 +92,20 @@ public class SetupCompatServiceInvoker {
 
   private SetupCompatServiceInvoker(Context context) {
     this.context = context;
-    this.loggingExecutor = ExecutorProvider.setupCompatServiceInvoker.get();
-    this.setupCompatExecutor = ExecutorProvider.setupCompatExecutor.get();
+    this.scheduler =
+        new SetupCompatServiceScheduler(
+            ExecutorProvider.setupCompatExecutor,
+            MAX_QUEUED_VALIDATIONS,
+            SetupCompatServiceScheduler.DropPolicy.DROP_OLDEST,
+            ExecutorProvider.setupCompatServiceInvoker,
+            MAX_QUEUED_METRICS,
+            SetupCompatServiceScheduler.DropPolicy.DROP_NEWEST);
     this.waitTimeInMillisForServiceConnection = MAX_WAIT_TIME_FOR_CONNECTION_MS;
   }
 
   private final Context context;
 
-  private final ExecutorService loggingExecutor;
-  private final ExecutorService setupCompatExecutor;
+  private final SetupCompatServiceScheduler scheduler;
   private final long waitTimeInMillisForServiceConnection;
 
   public static synchronized SetupCompatServiceInvoker get(Context context) {
@@ -114,6 +116,12 @@ public class SetupCompatServiceInvoker {
     return instance;
   }
 
+  /** Returns the scheduler of the invoker, or null if the invoker was not created yet. */
+  @Nullable
+  static synchronized SetupCompatServiceScheduler getSchedulerIfCreated() {
+    return instance != null ? instance.scheduler : null;
+  }
+
   @VisibleForTesting
   static void setInstanceForTesting(SetupCompatServiceInvoker testInstance) {
     instance = testInstance;
@@ -127,4 +135,6 @@ public class SetupCompatServiceInvoker {
   private static SetupCompatServiceInvoker instance;
 
   private static final long MAX_WAIT_TIME_FOR_CONNECTION_MS = TimeUnit.SECONDS.toMillis(10);
+  private static final int MAX_QUEUED_METRICS = 50;
+  private static final int MAX_QUEUED_VALIDATIONS = 8;
 }
@@ -21,13 +21,16 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.RemoteException;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import com.google.android.setupcompat.ISetupCompatService;
 import com.google.android.setupcompat.util.Logger;
+import java.io.PrintWriter;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -36,7 +39,9 @@ import java.util.function.UnaryOperator;
 
 /**
  * This class provides an instance of {@link ISetupCompatService}. It keeps track of the connection
- * state and reconnects if necessary.
+ * state and reconnects if necessary. When an idle timeout is set through {@link
+ * #setIdleUnbindTimeout(long, TimeUnit)}, the connection is released after that long without any
+ * call to {@link #get(Context, long, TimeUnit)} and transparently re-established on the next one.
  */
 public class SetupCompatServiceProvider {
 
@@ -50,7 +55,8 @@ public class SetupCompatServiceProvider {
    *
    * @throws IllegalStateException if called from the main thread since this is a blocking
    *     operation.
-   * @throws TimeoutException if timed out waiting for {@code waitTime}.
+   * @throws TimeoutException if timed out waiting for {@code waitTime}, or immediately if the
+   *     {@link ReconnectPolicy} has opened the circuit after repeated connection failures.
    */
   public static ISetupCompatService get(Context context, long waitTime, @NonNull TimeUnit timeUnit)
       throws TimeoutException, InterruptedException {
@@ -63,7 +69,14 @@ public class SetupCompatServiceProvider {
     Preconditions.checkState(
         disableLooperCheckForTesting || Looper.getMainLooper() != Looper.myLooper(),
         "getService blocks and should not be called from the main thread.");
+    markUsed();
     ServiceContext serviceContext = getCurrentServiceState();
+    if (serviceContext.state != State.CONNECTED && reconnectPolicy.shouldFailFast()) {
+      throw new TimeoutException(
+          String.format(
+              "Service connection circuit is open after %s consecutive failures",
+              reconnectPolicy.getConsecutiveFailures()));
+    }
     switch (serviceContext.state) {
       case CONNECTED:
         return serviceContext.compatService;
@@ -78,7 +91,10 @@ public class SetupCompatServiceProvider {
         return waitForConnection(timeout, timeUnit);
 
       case REBIND_REQUIRED:
-        requestServiceBind();
+      case IDLE_UNBOUND:
+        if (!requestServiceBind()) {
+          throw new TimeoutException("Rebind deferred by the reconnect policy");
+        }
         return waitForConnection(timeout, timeUnit);
 
       case NOT_STARTED:
@@ -97,11 +113,16 @@ public class SetupCompatServiceProvider {
 
     CountDownLatch connectedStateLatch = getConnectedCondition();
     LOG.atInfo("Waiting for service to get connected");
+    long waitStartNanos = ClockProvider.timeInNanos();
+    long waitStartMillis = ClockProvider.timeInMillis();
     boolean stateChanged = connectedStateLatch.await(timeout, timeUnit);
+    connectionStats.recordWaitForConnection(
+        ClockProvider.timeInNanos() - waitStartNanos, /* timedOut= */ !stateChanged);
     if (!stateChanged) {
       // Even though documentation states that disconnected service should connect again,
-      // requesting rebind reduces the wait time to acquire a new connection.
-      requestServiceBind();
+      // requesting rebind reduces the wait time to acquire a new connection. The reconnect policy
+      // spaces these rebinds out so a crash looping service does not cause a bind storm.
+      rebindAfterTimeout(waitStartMillis);
       throw new TimeoutException(
           String.format("Failed to acquire connection after [%s %s]", timeout, timeUnit));
     }
@@ -122,17 +143,55 @@ public class SetupCompatServiceProvider {
     return new CountDownLatch(1);
   }
 
-  private synchronized void requestServiceBind() {
+  /**
+   * Requests a (re)bind to the service if the {@link ReconnectPolicy} allows an attempt now.
+   *
+   * @return {@code true} if a bind was attempted or the service is already connected.
+   */
+  private synchronized boolean requestServiceBind() {
     ServiceContext currentServiceState = getCurrentServiceState();
     if (currentServiceState.state == State.CONNECTED) {
       LOG.atInfo("Refusing to rebind since current state is already connected");
+      return true;
+    }
+    if (!reconnectPolicy.tryAcquireBindAttempt()) {
+      LOG.atInfo(
+          String.format(
+              "Rebind deferred by reconnect policy, circuit state = %s",
+              reconnectPolicy.getCircuitState()));
+      return false;
+    }
+    bindServiceLocked(currentServiceState);
+    return true;
+  }
+
+  /**
+   * Rebinds to the service after a caller waiting for a connection since {@code waitStartMillis}
+   * timed out, if the {@link ReconnectPolicy} allows it.
+   */
+  private synchronized void rebindAfterTimeout(long waitStartMillis) {
+    ServiceContext currentServiceState = getCurrentServiceState();
+    if (currentServiceState.state == State.CONNECTED) {
+      return;
+    }
+    if (!reconnectPolicy.onWaitTimedOut(waitStartMillis)) {
+      LOG.atInfo(
+          String.format(
+              "Rebind after timeout deferred by reconnect policy, circuit state = %s",
+              reconnectPolicy.getCircuitState()));
       return;
     }
-    if (currentServiceState.state != State.NOT_STARTED) {
+    bindServiceLocked(currentServiceState);
+  }
+
+  private void bindServiceLocked(ServiceContext currentServiceState) {
+    if (currentServiceState.state != State.NOT_STARTED
+        && currentServiceState.state != State.IDLE_UNBOUND) {
       LOG.atInfo("Unbinding existing service connection.");
       context.unbindService(serviceConnection);
     }
 
+    connectionStats.recordBind(/* isRebind= */ currentServiceState.state != State.NOT_STARTED);
     boolean bindAllowed;
     try {
       bindAllowed =
@@ -157,6 +216,84 @@ public class SetupCompatServiceProvider {
     }
   }
 
+  /**
+   * Sets how long the connection may stay unused before it is released. A value of 0, the default,
+   * keeps the connection for the life of the process.
+   */
+  public static void setIdleUnbindTimeout(long timeout, @NonNull TimeUnit timeUnit) {
+    Preconditions.checkArgument(timeout >= 0, "Idle timeout cannot be negative.");
+    idleUnbindTimeoutMillis = timeUnit.toMillis(timeout);
+    SetupCompatServiceProvider provider = instance;
+    if (provider != null) {
+      provider.markUsed();
+    }
+  }
+
+  private void markUsed() {
+    lastUsedNanos = ClockProvider.timeInNanos();
+    if (idleUnbindTimeoutMillis > 0 && !idleCheckScheduled) {
+      scheduleIdleCheck(idleUnbindTimeoutMillis);
+    }
+  }
+
+  private synchronized void scheduleIdleCheck(long delayMillis) {
+    if (idleCheckScheduled) {
+      return;
+    }
+    idleCheckScheduled = true;
+    idleHandler.postDelayed(this::unbindIfIdle, delayMillis);
+  }
+
+  private void unbindIfIdle() {
+    long timeoutMillis = idleUnbindTimeoutMillis;
+    synchronized (this) {
+      idleCheckScheduled = false;
+      if (timeoutMillis <= 0) {
+        return;
+      }
+      long idleMillis = TimeUnit.NANOSECONDS.toMillis(ClockProvider.timeInNanos() - lastUsedNanos);
+      ServiceContext currentServiceState = getCurrentServiceState();
+      if (idleMillis < timeoutMillis) {
+        scheduleIdleCheck(timeoutMillis - idleMillis);
+        return;
+      }
+      if (currentServiceState.state != State.CONNECTED) {
+        // Only a live connection is released, other states are handled on the next call.
+        return;
+      }
+      LOG.atInfo(String.format("Unbinding after being idle for %s ms", idleMillis));
+      currentServiceState.compatService.asBinder().unlinkToDeath(deathRecipient, /* flags= */ 0);
+      context.unbindService(serviceConnection);
+      swapServiceContextAndNotify(new ServiceContext(State.IDLE_UNBOUND));
+    }
+  }
+
+  /** Returns a snapshot of the connection lifecycle statistics of this provider. */
+  public ServiceConnectionStats.Snapshot getConnectionStatsSnapshot() {
+    return connectionStats.snapshot();
+  }
+
+  /**
+   * Writes the connection state and lifecycle statistics of the provider instance, if one was
+   * created, to {@code writer}. Intended to be called from {@code Activity#dump} or {@code
+   * Service#dump}.
+   */
+  public static void dump(String prefix, PrintWriter writer) {
+    SetupCompatServiceProvider provider = instance;
+    if (provider == null) {
+      writer.println(prefix + "SetupCompatServiceProvider not created");
+      return;
+    }
+    writer.println(prefix + "SetupCompatServiceProvider state=" + provider.getCurrentState());
+    writer.println(prefix + "  circuitState=" + provider.reconnectPolicy.getCircuitState());
+    provider.getConnectionStatsSnapshot().dump(prefix + "  ", writer);
+  }
+
+  /** Returns the {@link ReconnectPolicy} that paces (re)binds of this provider. */
+  public ReconnectPolicy getReconnectPolicy() {
+    return reconnectPolicy;
+  }
+
   @VisibleForTesting
   static final Intent COMPAT_SERVICE_INTENT =
       new Intent()
@@ -176,6 +313,7 @@ public class SetupCompatServiceProvider {
     LOG.atInfo(
         String.format("State changed: %s -> %s", serviceContext.state, latestServiceContext.state));
 
+    connectionStats.recordTransition(serviceContext.state, latestServiceContext.state);
     serviceContext = latestServiceContext;
     CountDownLatch countDownLatch = getAndClearConnectedCondition();
     if (countDownLatch != null) {
@@ -209,6 +347,9 @@ public class SetupCompatServiceProvider {
     this.context = context.getApplicationContext();
   }
 
+  private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+  private final ServiceConnectionStats connectionStats = new ServiceConnectionStats();
+
   @VisibleForTesting
   final ServiceConnection serviceConnection =
       new ServiceConnection() {
@@ -218,6 +359,10 @@ public class SetupCompatServiceProvider {
           if (binder == null) {
             state = State.DISCONNECTED;
             LOG.w("Binder is null when onServiceConnected was called!");
+          } else {
+            // Report the connection first, linkToDeath may already report it as dead.
+            reconnectPolicy.onConnected();
+            linkToDeath(binder);
           }
           swapServiceContextAndNotify(
               new ServiceContext(state, ISetupCompatService.Stub.asInterface(binder)));
@@ -230,6 +375,7 @@ public class SetupCompatServiceProvider {
 
         @Override
         public void onBindingDied(ComponentName name) {
+          reconnectPolicy.onConnectionFailed();
           swapServiceContextAndNotify(new ServiceContext(State.REBIND_REQUIRED));
         }
 
@@ -239,6 +385,30 @@ public class SetupCompatServiceProvider {
         }
       };
 
+  private void linkToDeath(IBinder binder) {
+    try {
+      binder.linkToDeath(deathRecipient, /* flags= */ 0);
+    } catch (RemoteException e) {
+      // The service already died, onServiceDisconnected will follow. The policy counts this and
+      // the following onBindingDied as a single failure.
+      LOG.w("Service died before linkToDeath could be registered.");
+      reconnectPolicy.onConnectionFailed();
+    }
+  }
+
+  /**
+   * Feeds service process deaths into the {@link ReconnectPolicy}. The connection state itself is
+   * still driven by the {@link ServiceConnection} callbacks which follow the death notification.
+   */
+  private final IBinder.DeathRecipient deathRecipient =
+      () -> {
+        LOG.w("SetupCompatService died.");
+        reconnectPolicy.onConnectionFailed();
+      };
+
+  private final Handler idleHandler = new Handler(Looper.getMainLooper());
+  private volatile long lastUsedNanos;
+  private volatile boolean idleCheckScheduled = false;
   private volatile ServiceContext serviceContext = new ServiceContext(State.NOT_STARTED);
   private final Context context;
   private final AtomicReference<CountDownLatch> connectedConditionRef = new AtomicReference<>();
@@ -282,7 +452,13 @@ public class SetupCompatServiceProvider {
      * The provider has requested rebind via {@link Context#bindService(Intent, ServiceConnection,
      * int)} and is waiting for a service connection.
      */
-    REBIND_REQUIRED
+    REBIND_REQUIRED,
+
+    /**
+     * The provider released the connection via {@link Context#unbindService(ServiceConnection)}
+     * after being idle for the configured timeout. The next call rebinds transparently.
+     */
+    IDLE_UNBOUND
   }
 
   private static final class ServiceContext {
@@ -332,4 +508,6 @@ public class SetupCompatServiceProvider {
   // lint error.
   @SuppressLint("StaticFieldLeak")
   private static volatile SetupCompatServiceProvider instance;
+
+  private static volatile long idleUnbindTimeoutMillis = 0;
 }
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.internal;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.android.setupcompat.util.Logger;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Schedules calls to SetupCompatService on two lanes of different urgency.
+ *
+ * <ul>
+ *   <li>The validation lane carries latency-sensitive screen validation (bind back). Requests are
+ *       keyed by screen name and coalesced latest-wins: a newer request for a screen cancels the
+ *       pending one and moves the screen to the end of the lane. Requests are delivered in arrival
+ *       order.
+ *   <li>The telemetry lane carries bulk metric logging. Telemetry is deferred while validation is
+ *       pending or in flight, for at most {@link #MAX_TELEMETRY_DEFERRAL_MS}.
+ * </ul>
+ *
+ * <p>Each lane has its own queue limit and {@link DropPolicy}, and is drained by a single task on
+ * the executor of its {@link ExecutorProvider} so that bounded executors never hold more than one
+ * queued task per lane. The executors are resolved on every drain, so both lanes may share a
+ * single thread: the telemetry drain then yields the thread once to a queued validation instead
+ * of waiting for it. On separate executors it waits for the validation to finish instead. Either
+ * way telemetry is deferred for at most {@link #MAX_TELEMETRY_DEFERRAL_MS} in total, however many
+ * telemetry calls are pending.
+ */
+final class SetupCompatServiceScheduler {
+
+  private static final Logger LOG = new Logger("SetupCompatServiceScheduler");
+
+  /** What a lane does with a new request once its queue limit is reached. */
+  enum DropPolicy {
+    /** The new request is dropped. */
+    DROP_NEWEST,
+
+    /** The oldest pending request is dropped to make room for the new one. */
+    DROP_OLDEST
+  }
+
+  @VisibleForTesting static final long MAX_TELEMETRY_DEFERRAL_MS = 2000;
+
+  private final ExecutorProvider<? extends Executor> validationExecutor;
+  private final ExecutorProvider<? extends Executor> telemetryExecutor;
+  private final int validationLimit;
+  private final DropPolicy validationDropPolicy;
+  private final int telemetryLimit;
+  private final DropPolicy telemetryDropPolicy;
+
+  // All fields below are guarded by "this".
+  private final LinkedHashMap<String, Runnable> validationLane = new LinkedHashMap<>();
+  private final ArrayDeque<Runnable> telemetryLane = new ArrayDeque<>();
+  private boolean validationDrainScheduled = false;
+  private boolean validationInFlight = false;
+  private boolean telemetryDrainScheduled = false;
+  // The end of the current telemetry deferral, or -1 if telemetry is not being deferred.
+  private long telemetryDeferralDeadlineMillis = -1;
+  private boolean telemetryYieldedToValidation = false;
+  private long validationDroppedCount = 0;
+  private long validationSupersededCount = 0;
+  private long telemetryDroppedCount = 0;
+
+  SetupCompatServiceScheduler(
+      ExecutorProvider<? extends Executor> validationExecutor,
+      int validationLimit,
+      DropPolicy validationDropPolicy,
+      ExecutorProvider<? extends Executor> telemetryExecutor,
+      int telemetryLimit,
+      DropPolicy telemetryDropPolicy) {
+    Preconditions.checkArgument(validationLimit > 0, "Validation lane limit must be positive.");
+    Preconditions.checkArgument(telemetryLimit > 0, "Telemetry lane limit must be positive.");
+    this.validationExecutor = validationExecutor;
+    this.validationLimit = validationLimit;
+    this.validationDropPolicy = validationDropPolicy;
+    this.telemetryExecutor = telemetryExecutor;
+    this.telemetryLimit = telemetryLimit;
+    this.telemetryDropPolicy = telemetryDropPolicy;
+  }
+
+  /**
+   * Queues a screen validation for {@code screenName}, replacing any validation still pending for
+   * the same screen.
+   *
+   * @return {@code false} if the request was dropped by the lane's drop policy.
+   */
+  boolean submitValidation(String screenName, Runnable task) {
+    synchronized (this) {
+      if (validationLane.remove(screenName) != null) {
+        validationSupersededCount++;
+        LOG.atInfo(String.format("Superseded pending validation of screen %s.", screenName));
+      } else if (validationLane.size() >= validationLimit) {
+        validationDroppedCount++;
+        if (validationDropPolicy == DropPolicy.DROP_NEWEST) {
+          return false;
+        }
+        Iterator<String> eldest = validationLane.keySet().iterator();
+        LOG.w(String.format("Dropped pending validation of screen %s.", eldest.next()));
+        eldest.remove();
+      }
+      validationLane.put(screenName, task);
+      if (validationDrainScheduled) {
+        return true;
+      }
+      validationDrainScheduled = true;
+    }
+
+    try {
+      validationExecutor.getExecutor().execute(this::drainValidationLane);
+    } catch (RejectedExecutionException e) {
+      synchronized (this) {
+        validationDrainScheduled = false;
+        notifyAll();
+      }
+      LOG.e(String.format("Screen %s validation could not be scheduled.", screenName), e);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Queues a telemetry call.
+   *
+   * @return {@code false} if the request was dropped by the lane's drop policy.
+   */
+  boolean submitTelemetry(Runnable task) {
+    synchronized (this) {
+      if (telemetryLane.size() >= telemetryLimit) {
+        telemetryDroppedCount++;
+        if (telemetryDropPolicy == DropPolicy.DROP_NEWEST) {
+          return false;
+        }
+        telemetryLane.pollFirst();
+      }
+      telemetryLane.addLast(task);
+      if (telemetryDrainScheduled) {
+        return true;
+      }
+      telemetryDrainScheduled = true;
+    }
+
+    return scheduleTelemetryDrain();
+  }
+
+  private boolean scheduleTelemetryDrain() {
+    try {
+      telemetryExecutor.getExecutor().execute(this::drainTelemetryLane);
+    } catch (RejectedExecutionException e) {
+      synchronized (this) {
+        telemetryDrainScheduled = false;
+      }
+      LOG.e("Telemetry could not be scheduled.", e);
+      return false;
+    }
+    return true;
+  }
+
+  /** Returns the number of validations dropped because the lane was full. */
+  synchronized long getValidationDroppedCount() {
+    return validationDroppedCount;
+  }
+
+  /** Returns the number of validations replaced by a newer request for the same screen. */
+  synchronized long getValidationSupersededCount() {
+    return validationSupersededCount;
+  }
+
+  /** Returns the number of telemetry calls dropped because the lane was full. */
+  synchronized long getTelemetryDroppedCount() {
+    return telemetryDroppedCount;
+  }
+
+  /** Returns the number of validations waiting to be delivered. */
+  synchronized int getPendingValidationCount() {
+    return validationLane.size();
+  }
+
+  /** Returns the number of telemetry calls waiting to be delivered. */
+  synchronized int getPendingTelemetryCount() {
+    return telemetryLane.size();
+  }
+
+  private void drainValidationLane() {
+    boolean drained = false;
+    try {
+      while (true) {
+        Runnable task;
+        synchronized (this) {
+          Iterator<Map.Entry<String, Runnable>> iterator = validationLane.entrySet().iterator();
+          if (!iterator.hasNext()) {
+            validationDrainScheduled = false;
+            validationInFlight = false;
+            notifyAll();
+            drained = true;
+            return;
+          }
+          task = iterator.next().getValue();
+          iterator.remove();
+          validationInFlight = true;
+        }
+        runTask(task, "Validation");
+      }
+    } finally {
+      if (!drained) {
+        // Never leave the lane marked as busy, or validation and telemetry would stall for good.
+        synchronized (this) {
+          validationDrainScheduled = false;
+          validationInFlight = false;
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  private void drainTelemetryLane() {
+    boolean drained = false;
+    try {
+      while (true) {
+        Runnable task;
+        synchronized (this) {
+          if (shouldYieldToValidationLocked()) {
+            telemetryYieldedToValidation = true;
+            break;
+          }
+          awaitValidationIdleLocked();
+          task = telemetryLane.pollFirst();
+          if (task == null) {
+            telemetryDrainScheduled = false;
+            telemetryDeferralDeadlineMillis = -1;
+            telemetryYieldedToValidation = false;
+            drained = true;
+            return;
+          }
+        }
+        runTask(task, "Telemetry");
+      }
+      drained = true;
+    } finally {
+      if (!drained) {
+        synchronized (this) {
+          telemetryDrainScheduled = false;
+        }
+      }
+    }
+    scheduleTelemetryDrain();
+  }
+
+  /** Runs {@code task}, so that a failing call does not stop the drain of its lane. */
+  private static void runTask(Runnable task, String lane) {
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      LOG.e(lane + " call to SetupCompatService failed.", e);
+    }
+  }
+
+  /**
+   * Returns whether the telemetry drain should give its thread to a validation drain that is queued
+   * on the same executor but has not started yet. Waiting for it instead could block it for good on
+   * a single thread. The drain yields only once per deferral, so that it does not keep resubmitting
+   * itself on an executor that does not run the validation drain next.
+   */
+  private boolean shouldYieldToValidationLocked() {
+    return validationDrainScheduled
+        && !validationInFlight
+        && !telemetryYieldedToValidation
+        && validationExecutor.getExecutor() == telemetryExecutor.getExecutor();
+  }
+
+  /**
+   * Waits until no validation is pending or in flight. All the waits of one deferral share a single
+   * deadline, so telemetry is never deferred for more than {@link #MAX_TELEMETRY_DEFERRAL_MS}.
+   */
+  private void awaitValidationIdleLocked() {
+    if (isValidationBusyLocked()) {
+      if (telemetryDeferralDeadlineMillis < 0) {
+        telemetryDeferralDeadlineMillis = ClockProvider.timeInMillis() + MAX_TELEMETRY_DEFERRAL_MS;
+      }
+      while (isValidationBusyLocked()) {
+        long remaining = telemetryDeferralDeadlineMillis - ClockProvider.timeInMillis();
+        if (remaining <= 0) {
+          // Keep the expired deadline, so the rest of the telemetry is not deferred again.
+          return;
+        }
+        try {
+          wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+    telemetryDeferralDeadlineMillis = -1;
+    telemetryYieldedToValidation = false;
+  }
+
+  private boolean isValidationBusyLocked() {
+    return validationInFlight || (validationDrainScheduled && !validationLane.isEmpty());
+  }
+}
@@ -20,6 +20,7 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.os.Build.VERSION_CODES;
+import android.os.Looper;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -28,6 +29,7 @@ import android.view.ViewTreeObserver;
 import android.widget.FrameLayout;
 import androidx.annotation.Keep;
 import androidx.annotation.LayoutRes;
+import androidx.annotation.Nullable;
 import androidx.annotation.StyleRes;
 import com.google.android.setupcompat.R;
 import com.google.android.setupcompat.template.Mixin;
@@ -52,6 +54,27 @@ public class TemplateLayout extends FrameLayout {
 
   private final Map<Class<? extends Mixin>, Mixin> mixins = new HashMap<>();
 
+  /** Factories of the mixins registered lazily that have not been created yet. */
+  private final Map<Class<? extends Mixin>, MixinFactory<?>> mixinFactories = new HashMap<>();
+
+  /**
+   * Creates a mixin registered with {@link #registerMixin(Class, MixinFactory)} the first time it
+   * is requested.
+   *
+   * @param <M> The class of the mixin created by this factory.
+   */
+  public interface MixinFactory<M extends Mixin> {
+    /** Creates the mixin. This is called at most once, on the main thread. */
+    M create();
+  }
+
+  /**
+   * A template root inflated ahead of time by {@link AsyncTemplateInflater}, consumed by the next
+   * template layout that inflates the same template with the same context. Only accessed on the
+   * main thread.
+   */
+  private static PrefetchedTemplate prefetchedTemplate;
+
   public TemplateLayout(Context context, int template, int containerId) {
     super(context);
     init(template, containerId, null, R.attr.sucLayoutTheme);
@@ -96,9 +119,27 @@ public class TemplateLayout extends FrameLayout {
    * @param <M> The class of the mixin to register. This is the same as {@code cls}
    */
   protected <M extends Mixin> void registerMixin(Class<M> cls, M mixin) {
+    mixinFactories.remove(cls);
     mixins.put(cls, mixin);
   }
 
+  /**
+   * Registers a mixin with a given class, to be created by {@code factory} the first time it is
+   * requested through {@link #getMixin(Class)}. This method should be called in the constructor.
+   *
+   * <p>Mixins that have to change the window or the template while the layout is inflated must be
+   * registered with {@link #registerMixin(Class, Mixin)} instead. Since the {@link AttributeSet}
+   * given to the layout is only valid in its constructor, {@code factory} must not read it.
+   *
+   * @param cls The class to register the mixin, as in {@link #registerMixin(Class, Mixin)}.
+   * @param factory The factory creating the mixin to be registered.
+   * @param <M> The class of the mixin to register. This is the same as {@code cls}
+   */
+  protected <M extends Mixin> void registerMixin(Class<M> cls, MixinFactory<? extends M> factory) {
+    mixins.remove(cls);
+    mixinFactories.put(cls, factory);
+  }
+
   /**
    * Same as {@link View#findViewById(int)}, but may include views that are managed by this view but
    * not currently added to the view hierarchy. e.g. recycler view or list view headers that are not
@@ -124,6 +165,24 @@ public class TemplateLayout extends FrameLayout {
    */
   @SuppressWarnings("unchecked")
   public <M extends Mixin> M getMixin(Class<M> cls) {
+    M mixin = (M) mixins.get(cls);
+    if (mixin == null) {
+      MixinFactory<?> factory = mixinFactories.remove(cls);
+      if (factory != null) {
+        mixin = (M) factory.create();
+        mixins.put(cls, mixin);
+      }
+    }
+    return mixin;
+  }
+
+  /**
+   * Same as {@link #getMixin(Class)}, but returns null instead of creating a mixin registered with
+   * {@link #registerMixin(Class, MixinFactory)} that has not been requested yet.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  protected <M extends Mixin> M peekMixin(Class<M> cls) {
     return (M) mixins.get(cls);
   }
 
@@ -170,6 +229,12 @@ public class TemplateLayout extends FrameLayout {
     if (template == 0) {
       throw new IllegalArgumentException("android:layout not specified for TemplateLayout");
     }
+    if (fallbackTheme == 0) {
+      View prefetchedRoot = takePrefetchedTemplate(inflater.getContext(), template);
+      if (prefetchedRoot != null) {
+        return prefetchedRoot;
+      }
+    }
     if (fallbackTheme != 0) {
       inflater =
           LayoutInflater.from(new FallbackThemeWrapper(inflater.getContext(), fallbackTheme));
@@ -210,6 +275,40 @@ public class TemplateLayout extends FrameLayout {
    */
   protected void onBeforeTemplateInflated(AttributeSet attrs, int defStyleAttr) {}
 
+  /**
+   * Offers {@code templateRoot}, inflated from {@code template} with {@code context}, to the next
+   * template layout constructed on the main thread. Passing a {@code null} root withdraws the
+   * offer.
+   */
+  static void setPrefetchedTemplate(Context context, @LayoutRes int template, View templateRoot) {
+    prefetchedTemplate =
+        templateRoot == null ? null : new PrefetchedTemplate(context, template, templateRoot);
+  }
+
+  private static View takePrefetchedTemplate(Context context, @LayoutRes int template) {
+    PrefetchedTemplate prefetched = prefetchedTemplate;
+    if (prefetched == null
+        || prefetched.template != template
+        || prefetched.context != context
+        || Looper.myLooper() != Looper.getMainLooper()) {
+      return null;
+    }
+    prefetchedTemplate = null;
+    return prefetched.root;
+  }
+
+  private static final class PrefetchedTemplate {
+    private final Context context;
+    private final int template;
+    private final View root;
+
+    private PrefetchedTemplate(Context context, int template, View root) {
+      this.context = context;
+      this.template = template;
+      this.root = root;
+    }
+  }
+
   /* Animator support */
 
   private float xFraction;
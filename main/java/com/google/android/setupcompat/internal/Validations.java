@@ -28,7 +28,10 @@ public final class Validations {
   public static void assertLengthInRange(int length, String name, int minLength, int maxLength) {
     Preconditions.checkArgument(
         length <= maxLength && length >= minLength,
-        String.format("Length of %s should be in the range [%s-%s]", name, minLength, maxLength));
+        "Length of %s should be in the range [%s-%s]",
+        name,
+        minLength,
+        maxLength);
   }
 
   /**
@@ -39,7 +42,7 @@ public final class Validations {
    *     greather than {@code maxLength}.
    */
   public static void assertLengthInRange(String input, String name, int minLength, int maxLength) {
-    Preconditions.checkNotNull(input, String.format("%s cannot be null.", name));
+    Preconditions.checkNotNull(input, "%s cannot be null.", name);
     assertLengthInRange(input.length(), name, minLength, maxLength);
   }
 
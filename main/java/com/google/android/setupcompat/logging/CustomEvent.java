@@ -19,6 +19,7 @@ package com.google.android.setupcompat.logging;
 import static com.google.android.setupcompat.internal.Validations.assertLengthInRange;
 
 import android.annotation.TargetApi;
+import android.os.BaseBundle;
 import android.os.Build;
 import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
@@ -45,8 +46,19 @@ public final class CustomEvent implements Parcelable {
   private static final String BUNDLE_KEY_BUNDLE_VALUES = "CustomEvent_bundleValues";
   private static final String BUNDLE_KEY_BUNDLE_PII_VALUES = "CustomEvent_pii_bundleValues";
   private static final String BUNDLE_VERSION = "CustomEvent_version";
+  private static final String BUNDLE_KEY_METRICKEY_NAME = "CustomEvent_metricKeyName";
+  private static final String BUNDLE_KEY_METRICKEY_SCREEN_NAME = "CustomEvent_metricKeyScreenName";
+  private static final String VALUE_KEY_PREFIX = "v:";
+  private static final String PII_VALUE_KEY_PREFIX = "p:";
   private static final int VERSION = 1;
 
+  /**
+   * Encoding version that writes the timestamp, the metric key and the values of an event into a
+   * single flat {@link Bundle}. Value keys are prefixed with {@code "v:"} and PII value keys with
+   * {@code "p:"}.
+   */
+  public static final int VERSION_FLAT = 2;
+
   /** Creates a new instance of {@code CustomEvent}. Null arguments are not allowed. */
   public static CustomEvent create(
       MetricKey metricKey, PersistableBundle bundle, PersistableBundle piiValues) {
@@ -60,7 +72,8 @@ public final class CustomEvent implements Parcelable {
         // while constructor is used directly only when data is de-serialized from bundle (which
         // might have been sent by a client using a newer API)
         PersistableBundles.assertIsValid(bundle),
-        PersistableBundles.assertIsValid(piiValues));
+        PersistableBundles.assertIsValid(piiValues),
+        /* copyValues= */ true);
   }
 
   /** Creates a new instance of {@code CustomEvent}. Null arguments are not allowed. */
@@ -71,18 +84,38 @@ public final class CustomEvent implements Parcelable {
     return create(metricKey, bundle, PersistableBundle.EMPTY);
   }
 
-  /** Converts {@link Bundle} into {@link CustomEvent}. */
+  /**
+   * Converts {@link Bundle} into {@link CustomEvent}. Both the nested encoding and {@link
+   * #VERSION_FLAT} are read, as told by the bundle's version.
+   */
   public static CustomEvent toCustomEvent(Bundle bundle) {
+    if (bundle.getInt(BUNDLE_VERSION, VERSION) == VERSION_FLAT) {
+      return fromFlatBundle(bundle);
+    }
     return new CustomEvent(
         bundle.getLong(BUNDLE_KEY_TIMESTAMP, /* defaultValue= */ Long.MIN_VALUE),
         MetricKey.toMetricKey(bundle.getBundle(BUNDLE_KEY_METRICKEY)),
         PersistableBundles.fromBundle(bundle.getBundle(BUNDLE_KEY_BUNDLE_VALUES)),
-        PersistableBundles.fromBundle(bundle.getBundle(BUNDLE_KEY_BUNDLE_PII_VALUES)));
+        PersistableBundles.fromBundle(bundle.getBundle(BUNDLE_KEY_BUNDLE_PII_VALUES)),
+        /* copyValues= */ false);
   }
 
-  /** Converts {@link CustomEvent} into {@link Bundle}. */
+  /** Converts {@link CustomEvent} into {@link Bundle} using the nested encoding. */
   public static Bundle toBundle(CustomEvent customEvent) {
+    return toBundle(customEvent, VERSION);
+  }
+
+  /**
+   * Converts {@link CustomEvent} into {@link Bundle} using the encoding {@code version}. {@link
+   * #VERSION_FLAT} must only be used when the receiver is known to read it.
+   */
+  public static Bundle toBundle(CustomEvent customEvent, int version) {
     Preconditions.checkNotNull(customEvent, "CustomEvent cannot be null");
+    Preconditions.checkArgument(
+        version == VERSION || version == VERSION_FLAT, "Unknown CustomEvent version %s", version);
+    if (version == VERSION_FLAT) {
+      return toFlatBundle(customEvent);
+    }
     Bundle bundle = new Bundle();
     bundle.putInt(BUNDLE_VERSION, VERSION);
     bundle.putLong(BUNDLE_KEY_TIMESTAMP, customEvent.timestampMillis());
@@ -101,7 +134,8 @@ public final class CustomEvent implements Parcelable {
               in.readLong(),
               in.readParcelable(MetricKey.class.getClassLoader()),
               in.readPersistableBundle(MetricKey.class.getClassLoader()),
-              in.readPersistableBundle(MetricKey.class.getClassLoader()));
+              in.readPersistableBundle(MetricKey.class.getClassLoader()),
+              /* copyValues= */ false);
         }
 
         @Override
@@ -170,7 +204,8 @@ public final class CustomEvent implements Parcelable {
       long timestampMillis,
       MetricKey metricKey,
       PersistableBundle bundle,
-      PersistableBundle piiValues) {
+      PersistableBundle piiValues,
+      boolean copyValues) {
     Preconditions.checkArgument(timestampMillis >= 0, "Timestamp cannot be negative.");
     Preconditions.checkNotNull(metricKey, "MetricKey cannot be null.");
     Preconditions.checkNotNull(bundle, "Bundle cannot be null.");
@@ -179,8 +214,9 @@ public final class CustomEvent implements Parcelable {
     assertPersistableBundleIsValid(bundle);
     this.timestampMillis = timestampMillis;
     this.metricKey = metricKey;
-    this.persistableBundle = new PersistableBundle(bundle);
-    this.piiValues = new PersistableBundle(piiValues);
+    // Bundles handed over by API consumers are copied, bundles decoded by this class are owned.
+    this.persistableBundle = copyValues ? new PersistableBundle(bundle) : bundle;
+    this.piiValues = copyValues ? new PersistableBundle(piiValues) : piiValues;
   }
 
   private final long timestampMillis;
@@ -195,9 +231,9 @@ public final class CustomEvent implements Parcelable {
       if (value instanceof String) {
         Preconditions.checkArgument(
             ((String) value).length() <= MAX_STR_LENGTH,
-            String.format(
-                "Maximum length of string value for key='%s' cannot exceed %s.",
-                key, MAX_STR_LENGTH));
+            "Maximum length of string value for key='%s' cannot exceed %s.",
+            key,
+            MAX_STR_LENGTH);
       }
     }
   }
@@ -215,6 +251,60 @@ public final class CustomEvent implements Parcelable {
     }
   }
 
+  private static Bundle toFlatBundle(CustomEvent customEvent) {
+    PersistableBundle values = customEvent.persistableBundle;
+    PersistableBundle piiValues = customEvent.piiValues;
+    Bundle bundle = new Bundle(4 + values.size() + piiValues.size());
+    bundle.putInt(BUNDLE_VERSION, VERSION_FLAT);
+    bundle.putLong(BUNDLE_KEY_TIMESTAMP, customEvent.timestampMillis);
+    bundle.putString(BUNDLE_KEY_METRICKEY_NAME, customEvent.metricKey.name());
+    bundle.putString(BUNDLE_KEY_METRICKEY_SCREEN_NAME, customEvent.metricKey.screenName());
+    for (String key : values.keySet()) {
+      putValue(bundle, VALUE_KEY_PREFIX + key, values.get(key));
+    }
+    for (String key : piiValues.keySet()) {
+      putValue(bundle, PII_VALUE_KEY_PREFIX + key, piiValues.get(key));
+    }
+    return bundle;
+  }
+
+  private static CustomEvent fromFlatBundle(Bundle bundle) {
+    PersistableBundle values = new PersistableBundle();
+    PersistableBundle piiValues = new PersistableBundle();
+    for (String key : bundle.keySet()) {
+      if (key.startsWith(VALUE_KEY_PREFIX)) {
+        putValue(values, key.substring(VALUE_KEY_PREFIX.length()), bundle.get(key));
+      } else if (key.startsWith(PII_VALUE_KEY_PREFIX)) {
+        putValue(piiValues, key.substring(PII_VALUE_KEY_PREFIX.length()), bundle.get(key));
+      }
+    }
+    return new CustomEvent(
+        bundle.getLong(BUNDLE_KEY_TIMESTAMP, /* defaultValue= */ Long.MIN_VALUE),
+        MetricKey.get(
+            bundle.getString(BUNDLE_KEY_METRICKEY_NAME),
+            bundle.getString(BUNDLE_KEY_METRICKEY_SCREEN_NAME)),
+        values,
+        piiValues,
+        /* copyValues= */ false);
+  }
+
+  /** Puts {@code value} into {@code bundle}, dropping the data types not supported by logging. */
+  private static void putValue(BaseBundle bundle, String key, Object value) {
+    if (value instanceof Long) {
+      bundle.putLong(key, (Long) value);
+    } else if (value instanceof Integer) {
+      bundle.putInt(key, (Integer) value);
+    } else if (value instanceof Double) {
+      bundle.putDouble(key, (Double) value);
+    } else if (value instanceof Float) {
+      bundle.putDouble(key, (Float) value);
+    } else if (value instanceof Boolean) {
+      bundle.putBoolean(key, (Boolean) value);
+    } else if (value instanceof String) {
+      bundle.putString(key, (String) value);
+    }
+  }
+
   @VisibleForTesting static final int MAX_STR_LENGTH = 50;
   @VisibleForTesting static final int MIN_BUNDLE_KEY_LENGTH = 3;
 }
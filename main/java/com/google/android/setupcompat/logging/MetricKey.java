@@ -25,11 +25,16 @@ import android.os.Parcelable;
 import androidx.annotation.NonNull;
 import com.google.android.setupcompat.internal.Preconditions;
 import com.google.android.setupcompat.util.ObjectUtils;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
  * A metric key represents a validated “string key” and a "screen name" that is associated with the
  * values reported by the API consumer.
+ *
+ * <p>Keys created by {@link #get} are interned: each distinct pair of name and screen name is
+ * validated once and the same instance is returned afterwards. Keys created from an activity are
+ * interned separately, since their screen name is not validated.
  */
 public final class MetricKey implements Parcelable {
 
@@ -46,11 +51,15 @@ public final class MetricKey implements Parcelable {
    */
   public static MetricKey get(@NonNull String name, @NonNull Activity activity) {
     String screenName = activity.getComponentName().getClassName();
+    MetricKey metricKey = getInterned(activityKeys, name, screenName);
+    if (metricKey != null) {
+      return metricKey;
+    }
     assertLengthInRange(name, "MetricKey.name", MIN_METRIC_KEY_LENGTH, MAX_METRIC_KEY_LENGTH);
     Preconditions.checkArgument(
         METRIC_KEY_PATTERN.matcher(name).matches(),
         "Invalid MetricKey, only alpha numeric characters are allowed.");
-    return new MetricKey(name, screenName);
+    return intern(activityKeys, new MetricKey(name, screenName));
   }
 
   /**
@@ -66,6 +75,10 @@ public final class MetricKey implements Parcelable {
    * </ul>
    */
   public static MetricKey get(@NonNull String name, @NonNull String screenName) {
+    MetricKey metricKey = getInterned(internedKeys, name, screenName);
+    if (metricKey != null) {
+      return metricKey;
+    }
     // We only checked the length of customized screen name, by the reason if the screenName match
     // to the class name skip check it
     if (!SCREEN_COMPONENTNAME_PATTERN.matcher(screenName).matches()) {
@@ -81,7 +94,44 @@ public final class MetricKey implements Parcelable {
         METRIC_KEY_PATTERN.matcher(name).matches(),
         "Invalid MetricKey, only alpha numeric characters are allowed.");
 
-    return new MetricKey(name, screenName);
+    return intern(internedKeys, new MetricKey(name, screenName));
+  }
+
+  /** Returns the key of {@code name} and {@code screenName} interned in {@code keys}, or null. */
+  private static MetricKey getInterned(
+      ConcurrentHashMap<String, ConcurrentHashMap<String, MetricKey>> keys,
+      String name,
+      String screenName) {
+    if (name == null || screenName == null) {
+      return null;
+    }
+    ConcurrentHashMap<String, MetricKey> keysOfScreen = keys.get(screenName);
+    return keysOfScreen == null ? null : keysOfScreen.get(name);
+  }
+
+  /**
+   * Returns the instance equal to {@code metricKey} interned in {@code keys}, interning {@code
+   * metricKey} itself if there is none yet. Once {@link #MAX_INTERNED_KEYS} keys are interned new
+   * keys are returned as is, so unbounded sets of screen names cannot grow the cache.
+   */
+  private static MetricKey intern(
+      ConcurrentHashMap<String, ConcurrentHashMap<String, MetricKey>> keys, MetricKey metricKey) {
+    ConcurrentHashMap<String, MetricKey> keysOfScreen = keys.get(metricKey.screenName);
+    if (keysOfScreen == null) {
+      if (keys.size() >= MAX_INTERNED_KEYS) {
+        return metricKey;
+      }
+      ConcurrentHashMap<String, MetricKey> newKeysOfScreen = new ConcurrentHashMap<>();
+      keysOfScreen = keys.putIfAbsent(metricKey.screenName, newKeysOfScreen);
+      if (keysOfScreen == null) {
+        keysOfScreen = newKeysOfScreen;
+      }
+    }
+    if (keysOfScreen.size() >= MAX_INTERNED_KEYS) {
+      return metricKey;
+    }
+    MetricKey interned = keysOfScreen.putIfAbsent(metricKey.name, metricKey);
+    return interned == null ? metricKey : interned;
   }
 
   /** Converts {@link MetricKey} into {@link Bundle}. */
@@ -151,16 +201,35 @@ public final class MetricKey implements Parcelable {
 
   @Override
   public int hashCode() {
-    return ObjectUtils.hashCode(name, screenName);
+    return hashCode;
   }
 
   private MetricKey(String name, String screenName) {
     this.name = name;
     this.screenName = screenName;
+    this.hashCode = ObjectUtils.hashCode(name, screenName);
   }
 
   private final String name;
   private final String screenName;
+  private final int hashCode;
+
+  /**
+   * Keys created from a screen name string, by screen name, then by name. Screen names are
+   * validated before a key is interned here.
+   */
+  private static final ConcurrentHashMap<String, ConcurrentHashMap<String, MetricKey>>
+      internedKeys = new ConcurrentHashMap<>();
+
+  /**
+   * Keys created from an activity, by screen name, then by name. Activity class names are not
+   * validated, so these keys must never be returned for a screen name string.
+   */
+  private static final ConcurrentHashMap<String, ConcurrentHashMap<String, MetricKey>>
+      activityKeys = new ConcurrentHashMap<>();
+
+  /** Upper bound of the number of interned screen names, and of interned names per screen. */
+  private static final int MAX_INTERNED_KEYS = 256;
 
   private static final int MIN_SCREEN_NAME_LENGTH = 5;
   private static final int MIN_METRIC_KEY_LENGTH = 5;
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.logging;
+
+import android.annotation.TargetApi;
+import android.os.Build.VERSION_CODES;
+import android.os.PersistableBundle;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.setupcompat.internal.ClockProvider;
+import com.google.android.setupcompat.internal.Preconditions;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-metric-name sampling rates and token bucket rate limits applied by {@link
+ * SetupMetricsLogger} before any {@link android.os.Bundle} is built. Rules are keyed by {@link
+ * MetricKey#name()}, so one rule covers the metric on every screen.
+ *
+ * <p>A metric is first rate limited and then sampled. The number of metrics dropped by each stage
+ * is kept per name and can be read with {@link #getDroppedCount(String)} and {@link
+ * #getSampledOutCount(String)}, so totals can be reconstructed from the sampling rate and counts.
+ */
+public final class MetricSamplingPolicy {
+
+  private final ConcurrentHashMap<String, Rule> rules = new ConcurrentHashMap<>();
+  private final Random random;
+
+  public MetricSamplingPolicy() {
+    this(new Random());
+  }
+
+  @VisibleForTesting
+  MetricSamplingPolicy(Random random) {
+    this.random = random;
+  }
+
+  /**
+   * Keeps only a {@code samplingRate} fraction of the metrics named {@code metricName}.
+   *
+   * @param samplingRate fraction of metrics to keep, between 0 (drop all) and 1 (keep all).
+   */
+  public void setSamplingRate(@NonNull String metricName, float samplingRate) {
+    Preconditions.checkArgument(
+        samplingRate >= 0f && samplingRate <= 1f, "Sampling rate must be in the range [0-1].");
+    getOrCreateRule(metricName).setSamplingRate(samplingRate);
+  }
+
+  /**
+   * Limits the metrics named {@code metricName} with a token bucket that holds at most {@code
+   * burst} tokens and refills {@code permitsPerMinute} tokens per minute.
+   */
+  public void setRateLimit(@NonNull String metricName, int permitsPerMinute, int burst) {
+    Preconditions.checkArgument(permitsPerMinute > 0, "Rate must be positive.");
+    Preconditions.checkArgument(burst > 0, "Burst must be positive.");
+    getOrCreateRule(metricName).setRateLimit(permitsPerMinute, burst);
+  }
+
+  /** Removes the sampling rate and rate limit of {@code metricName}, and resets its counts. */
+  public void clear(@NonNull String metricName) {
+    rules.remove(metricName);
+  }
+
+  /** Returns the number of metrics named {@code metricName} dropped by the rate limit. */
+  public long getDroppedCount(@NonNull String metricName) {
+    Rule rule = rules.get(metricName);
+    return rule == null ? 0 : rule.getDroppedCount();
+  }
+
+  /** Returns the number of metrics named {@code metricName} dropped by sampling. */
+  public long getSampledOutCount(@NonNull String metricName) {
+    Rule rule = rules.get(metricName);
+    return rule == null ? 0 : rule.getSampledOutCount();
+  }
+
+  /**
+   * Moves the dropped and sampled out counts of every rule into a bundle, together with the
+   * sampling rate, and resets the counts. Rules without drops are skipped.
+   */
+  @TargetApi(VERSION_CODES.LOLLIPOP_MR1)
+  PersistableBundle drainReport() {
+    PersistableBundle report = new PersistableBundle();
+    for (Map.Entry<String, Rule> entry : rules.entrySet()) {
+      entry.getValue().drainInto(entry.getKey(), report);
+    }
+    return report;
+  }
+
+  /** Returns {@code true} if a metric with {@code metricKey} should be sent to SetupWizard. */
+  boolean shouldLog(MetricKey metricKey) {
+    Rule rule = rules.get(metricKey.name());
+    return rule == null || rule.tryAcquire(random);
+  }
+
+  private Rule getOrCreateRule(String metricName) {
+    Preconditions.checkNotNull(metricName, "Metric name cannot be null.");
+    Rule rule = rules.get(metricName);
+    if (rule == null) {
+      Rule newRule = new Rule();
+      rule = rules.putIfAbsent(metricName, newRule);
+      if (rule == null) {
+        rule = newRule;
+      }
+    }
+    return rule;
+  }
+
+  private static final class Rule {
+    private float samplingRate = 1f;
+    private double permitsPerNano = 0;
+    private double maxTokens = 0;
+    private double tokens = 0;
+    private long lastRefillNanos;
+    private long droppedCount;
+    private long sampledOutCount;
+
+    synchronized void setSamplingRate(float samplingRate) {
+      this.samplingRate = samplingRate;
+    }
+
+    synchronized void setRateLimit(int permitsPerMinute, int burst) {
+      permitsPerNano = permitsPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+      maxTokens = burst;
+      tokens = burst;
+      lastRefillNanos = ClockProvider.timeInNanos();
+    }
+
+    synchronized boolean tryAcquire(Random random) {
+      if (maxTokens > 0) {
+        long now = ClockProvider.timeInNanos();
+        tokens = Math.min(maxTokens, tokens + (now - lastRefillNanos) * permitsPerNano);
+        lastRefillNanos = now;
+        if (tokens < 1) {
+          droppedCount++;
+          return false;
+        }
+        tokens -= 1;
+      }
+      if (samplingRate < 1f && random.nextFloat() >= samplingRate) {
+        sampledOutCount++;
+        return false;
+      }
+      return true;
+    }
+
+    synchronized long getDroppedCount() {
+      return droppedCount;
+    }
+
+    synchronized long getSampledOutCount() {
+      return sampledOutCount;
+    }
+
+    @TargetApi(VERSION_CODES.LOLLIPOP_MR1)
+    synchronized void drainInto(String metricName, PersistableBundle report) {
+      if (droppedCount == 0 && sampledOutCount == 0) {
+        return;
+      }
+      report.putLong(metricName + "_dropped", droppedCount);
+      report.putLong(metricName + "_sampledOut", sampledOutCount);
+      report.putDouble(metricName + "_samplingRate", samplingRate);
+      droppedCount = 0;
+      sampledOutCount = 0;
+    }
+  }
+}
@@ -17,11 +17,16 @@
 package com.google.android.setupcompat.logging;
 
 import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.PersistableBundle;
 import androidx.annotation.NonNull;
 import com.google.android.setupcompat.internal.Preconditions;
 import com.google.android.setupcompat.internal.SetupCompatServiceInvoker;
+import com.google.android.setupcompat.logging.internal.DurationHistogram;
 import com.google.android.setupcompat.logging.internal.MetricBundleConverter;
 import com.google.android.setupcompat.logging.internal.SetupMetricsLoggingConstants.MetricType;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /** SetupMetricsLogger provides an easy way to log custom metrics to SetupWizard. */
@@ -31,9 +36,11 @@ public class SetupMetricsLogger {
   public static void logCustomEvent(@NonNull Context context, @NonNull CustomEvent customEvent) {
     Preconditions.checkNotNull(context, "Context cannot be null.");
     Preconditions.checkNotNull(customEvent, "CustomEvent cannot be null.");
+    if (!samplingPolicy.shouldLog(customEvent.metricKey())) {
+      return;
+    }
     SetupCompatServiceInvoker.get(context)
-        .logMetricEvent(
-            MetricType.CUSTOM_EVENT, MetricBundleConverter.createBundleForLogging(customEvent));
+        .logMetricEvent(MetricType.CUSTOM_EVENT, createBundleForLogging(customEvent));
   }
 
   /** Increments the counter value with the name {@code counterName} by {@code times}. */
@@ -42,6 +49,9 @@ public class SetupMetricsLogger {
     Preconditions.checkNotNull(context, "Context cannot be null.");
     Preconditions.checkNotNull(counterName, "CounterName cannot be null.");
     Preconditions.checkArgument(times > 0, "Counter cannot be negative.");
+    if (!samplingPolicy.shouldLog(counterName)) {
+      return;
+    }
     SetupCompatServiceInvoker.get(context)
         .logMetricEvent(
             MetricType.COUNTER_EVENT,
@@ -60,15 +70,151 @@ public class SetupMetricsLogger {
         context, timer.getMetricKey(), TimeUnit.NANOSECONDS.toMillis(timer.getDurationInNanos()));
   }
 
-  /** Logs a duration event to SetupWizard. */
+  /**
+   * Logs a duration event to SetupWizard. When histogram mode is enabled, the duration is recorded
+   * into a local histogram instead and sent on the next {@link #flushDurationHistograms(Context)}.
+   */
   public static void logDuration(
       @NonNull Context context, @NonNull MetricKey timerName, long timeInMillis) {
     Preconditions.checkNotNull(context, "Context cannot be null.");
     Preconditions.checkNotNull(timerName, "Timer name cannot be null.");
     Preconditions.checkArgument(timeInMillis >= 0, "Duration cannot be negative.");
+    if (durationHistogramEnabled) {
+      getOrCreateHistogram(timerName).record(timeInMillis);
+      return;
+    }
+    if (!samplingPolicy.shouldLog(timerName)) {
+      return;
+    }
     SetupCompatServiceInvoker.get(context)
         .logMetricEvent(
             MetricType.DURATION_EVENT,
             MetricBundleConverter.createBundleForLoggingTimer(timerName, timeInMillis));
   }
+
+  /**
+   * Enables or disables histogram mode for duration events. While enabled, {@link
+   * #logDuration(Context, MetricKey, long)} merges durations into a per-{@link MetricKey} histogram
+   * instead of sending one event per duration. Disabling histogram mode does not drop durations
+   * already recorded; call {@link #flushDurationHistograms(Context)} to send them.
+   */
+  public static void setDurationHistogramEnabled(boolean enabled) {
+    durationHistogramEnabled = enabled;
+  }
+
+  /** Returns {@code true} if duration events are currently merged into local histograms. */
+  public static boolean isDurationHistogramEnabled() {
+    return durationHistogramEnabled;
+  }
+
+  /**
+   * Sends every non-empty duration histogram to SetupWizard as one {@link
+   * MetricType#DURATION_HISTOGRAM_EVENT} per {@link MetricKey} and resets them.
+   */
+  public static void flushDurationHistograms(@NonNull Context context) {
+    Preconditions.checkNotNull(context, "Context cannot be null.");
+    for (DurationHistogram histogram : durationHistograms.values()) {
+      Bundle bundle = histogram.flushToBundle();
+      if (bundle != null) {
+        SetupCompatServiceInvoker.get(context)
+            .logMetricEvent(MetricType.DURATION_HISTOGRAM_EVENT, bundle);
+      }
+    }
+  }
+
+  /**
+   * Logs the spans aggregated by {@code spanTracer} since the last call as one {@link CustomEvent}
+   * keyed by the tracer's {@link MetricKey}, and clears them. Nothing is logged below Android Q or
+   * when no span was closed.
+   */
+  public static void logSpans(@NonNull Context context, @NonNull SpanTracer spanTracer) {
+    Preconditions.checkNotNull(context, "Context cannot be null.");
+    Preconditions.checkNotNull(spanTracer, "SpanTracer cannot be null.");
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || spanTracer.isEmpty()) {
+      return;
+    }
+    logCustomEvent(
+        context, CustomEvent.create(spanTracer.getMetricKey(), spanTracer.drainSummary()));
+  }
+
+  /**
+   * Sets whether setup screens collect frame statistics while resumed: frame count, slow and
+   * frozen frame counts and a frame duration histogram. They are logged as a {@code
+   * ScreenFrameStats} custom event next to {@code ScreenDuration}. Disabled by default.
+   */
+  public static void setFrameMetricsEnabled(boolean enabled) {
+    frameMetricsEnabled = enabled;
+  }
+
+  /** Returns whether setup screens collect frame statistics. */
+  public static boolean isFrameMetricsEnabled() {
+    return frameMetricsEnabled;
+  }
+
+  /**
+   * Sets whether custom events are sent with the flat {@link CustomEvent#VERSION_FLAT} encoding,
+   * which avoids the nested bundles of the default encoding. Only enable it when the SetupWizard
+   * on the device reads that version.
+   */
+  public static void setFlatCustomEventEncodingEnabled(boolean enabled) {
+    flatCustomEventEncodingEnabled = enabled;
+  }
+
+  private static Bundle createBundleForLogging(CustomEvent customEvent) {
+    return flatCustomEventEncodingEnabled
+        ? MetricBundleConverter.createBundleForLogging(customEvent, CustomEvent.VERSION_FLAT)
+        : MetricBundleConverter.createBundleForLogging(customEvent);
+  }
+
+  /**
+   * Returns the {@link MetricSamplingPolicy} applied to every custom event, counter and duration
+   * before it is sent. Durations merged into histograms are not sampled since they are sent in
+   * bulk.
+   */
+  public static MetricSamplingPolicy getSamplingPolicy() {
+    return samplingPolicy;
+  }
+
+  /**
+   * Sends the number of metrics dropped or sampled out per metric name since the last call, along
+   * with the sampling rates, as one {@link CustomEvent}. Nothing is sent if no metric was dropped.
+   */
+  public static void flushSamplingReport(@NonNull Context context) {
+    Preconditions.checkNotNull(context, "Context cannot be null.");
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+      return;
+    }
+    PersistableBundle report = samplingPolicy.drainReport();
+    if (!report.isEmpty()) {
+      SetupCompatServiceInvoker.get(context)
+          .logMetricEvent(
+              MetricType.CUSTOM_EVENT,
+              createBundleForLogging(
+                  CustomEvent.create(
+                      MetricKey.get("MetricSamplingReport", "NoScreenName"), report)));
+    }
+  }
+
+  private static DurationHistogram getOrCreateHistogram(MetricKey metricKey) {
+    DurationHistogram histogram = durationHistograms.get(metricKey);
+    if (histogram == null) {
+      DurationHistogram newHistogram = new DurationHistogram(metricKey);
+      histogram = durationHistograms.putIfAbsent(metricKey, newHistogram);
+      if (histogram == null) {
+        histogram = newHistogram;
+      }
+    }
+    return histogram;
+  }
+
+  private static volatile boolean durationHistogramEnabled = false;
+
+  private static volatile boolean flatCustomEventEncodingEnabled = false;
+
+  private static volatile boolean frameMetricsEnabled = false;
+
+  private static final MetricSamplingPolicy samplingPolicy = new MetricSamplingPolicy();
+
+  private static final ConcurrentHashMap<MetricKey, DurationHistogram> durationHistograms =
+      new ConcurrentHashMap<>();
 }
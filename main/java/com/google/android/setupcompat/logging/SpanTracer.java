@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.logging;
+
+import static com.google.android.setupcompat.internal.Validations.assertLengthInRange;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Build.VERSION_CODES;
+import android.os.PersistableBundle;
+import android.os.Trace;
+import androidx.annotation.NonNull;
+import com.google.android.setupcompat.internal.ClockProvider;
+import com.google.android.setupcompat.internal.Preconditions;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Breaks the duration of a screen down into nested, named spans. Where {@link Timer} measures one
+ * duration per {@link MetricKey}, a tracer aggregates every span by name into a total time, a self
+ * time excluding the nested spans, and a count, and all of them are logged as a single {@link
+ * CustomEvent} by {@link SetupMetricsLogger#logSpans(android.content.Context, SpanTracer)}.
+ *
+ * <p>Spans must be closed in the reverse order they were opened. When system tracing is enabled
+ * each span is also mirrored into an {@link Trace} section. Please note that this class is not
+ * thread-safe, spans must be opened and closed on the same thread.
+ */
+public final class SpanTracer {
+
+  /** Creates a tracer whose summary is logged with {@code metricKey}. */
+  public SpanTracer(@NonNull MetricKey metricKey) {
+    this.metricKey = Preconditions.checkNotNull(metricKey, "MetricKey cannot be null.");
+  }
+
+  /** Sets whether spans are also mirrored into {@link Trace} sections. Disabled by default. */
+  public void setSystemTraceEnabled(boolean enabled) {
+    Preconditions.checkState(openSpans.isEmpty(), "Cannot change system tracing with open spans.");
+    systemTraceEnabled = enabled && Build.VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN_MR2;
+  }
+
+  /**
+   * Opens a span named {@code name} nested in the innermost open span.
+   *
+   * <p>NOTE: Length of {@code name} should be in range of 3-40 characters, only alpha numeric
+   * characters are allowed.
+   */
+  public void beginSpan(@NonNull String name) {
+    assertLengthInRange(name, "Span name", MIN_SPAN_NAME_LENGTH, MAX_SPAN_NAME_LENGTH);
+    Preconditions.checkArgument(
+        SPAN_NAME_PATTERN.matcher(name).matches(),
+        "Invalid span name %s, only alpha numeric characters are allowed.",
+        name);
+    if (systemTraceEnabled) {
+      Trace.beginSection(name);
+    }
+    openSpans.add(new OpenSpan(name, ClockProvider.timeInNanos()));
+  }
+
+  /**
+   * Closes the innermost open span.
+   *
+   * @throws IllegalStateException if no span is open.
+   */
+  public void endSpan() {
+    Preconditions.checkState(!openSpans.isEmpty(), "No span is open.");
+    long now = ClockProvider.timeInNanos();
+    OpenSpan span = openSpans.remove(openSpans.size() - 1);
+    if (systemTraceEnabled) {
+      Trace.endSection();
+    }
+    long totalNanos = now - span.startInNanos;
+    SpanStats stats = spanStats.get(span.name);
+    if (stats == null) {
+      stats = new SpanStats();
+      spanStats.put(span.name, stats);
+    }
+    stats.count++;
+    stats.selfNanos += totalNanos - span.childNanos;
+    // Recursive spans of the same name count towards the total only once.
+    if (!isOpen(span.name)) {
+      stats.totalNanos += totalNanos;
+    }
+    if (!openSpans.isEmpty()) {
+      openSpans.get(openSpans.size() - 1).childNanos += totalNanos;
+    }
+  }
+
+  /** Returns the number of spans currently open. */
+  public int getOpenSpanCount() {
+    return openSpans.size();
+  }
+
+  /** Returns the total time spent in spans named {@code name}, in milliseconds. */
+  public long getTotalTimeMillis(@NonNull String name) {
+    SpanStats stats = spanStats.get(name);
+    return stats == null ? 0 : TimeUnit.NANOSECONDS.toMillis(stats.totalNanos);
+  }
+
+  /**
+   * Returns the time spent in spans named {@code name} but not in the spans nested in them, in
+   * milliseconds.
+   */
+  public long getSelfTimeMillis(@NonNull String name) {
+    SpanStats stats = spanStats.get(name);
+    return stats == null ? 0 : TimeUnit.NANOSECONDS.toMillis(stats.selfNanos);
+  }
+
+  MetricKey getMetricKey() {
+    return metricKey;
+  }
+
+  boolean isEmpty() {
+    return spanStats.isEmpty();
+  }
+
+  /**
+   * Writes the aggregated spans into a bundle, as {@code <name>_totalMs}, {@code <name>_selfMs} and
+   * {@code <name>_count} per span name, and clears them. Spans still open are kept.
+   */
+  @TargetApi(VERSION_CODES.LOLLIPOP_MR1)
+  PersistableBundle drainSummary() {
+    PersistableBundle summary = new PersistableBundle();
+    for (Map.Entry<String, SpanStats> entry : spanStats.entrySet()) {
+      String name = entry.getKey();
+      SpanStats stats = entry.getValue();
+      summary.putLong(name + "_totalMs", TimeUnit.NANOSECONDS.toMillis(stats.totalNanos));
+      summary.putLong(name + "_selfMs", TimeUnit.NANOSECONDS.toMillis(stats.selfNanos));
+      summary.putInt(name + "_count", stats.count);
+    }
+    spanStats.clear();
+    return summary;
+  }
+
+  private boolean isOpen(String name) {
+    for (int i = 0; i < openSpans.size(); i++) {
+      if (openSpans.get(i).name.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static final class OpenSpan {
+    private final String name;
+    private final long startInNanos;
+    private long childNanos;
+
+    private OpenSpan(String name, long startInNanos) {
+      this.name = name;
+      this.startInNanos = startInNanos;
+    }
+  }
+
+  private static final class SpanStats {
+    private long totalNanos;
+    private long selfNanos;
+    private int count;
+  }
+
+  private final MetricKey metricKey;
+  private final ArrayList<OpenSpan> openSpans = new ArrayList<>();
+  private final LinkedHashMap<String, SpanStats> spanStats = new LinkedHashMap<>();
+  private boolean systemTraceEnabled = false;
+
+  private static final int MIN_SPAN_NAME_LENGTH = 3;
+  private static final int MAX_SPAN_NAME_LENGTH = 40;
+  private static final Pattern SPAN_NAME_PATTERN = Pattern.compile("^[a-zA-Z][a-zA-Z0-9_]+");
+}
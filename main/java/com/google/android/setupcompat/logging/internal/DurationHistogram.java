@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.logging.internal;
+
+import android.os.Bundle;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.setupcompat.internal.Preconditions;
+import com.google.android.setupcompat.logging.MetricKey;
+import com.google.android.setupcompat.logging.internal.SetupMetricsLoggingConstants.MetricBundleKeys;
+import java.util.Arrays;
+
+/**
+ * A log-linear bucketed histogram of durations in milliseconds. Values below {@code
+ * 2^SUB_BUCKET_BITS} get a bucket of their own, every power of two above that is split into {@code
+ * 2^SUB_BUCKET_BITS} linear sub-buckets, which bounds the relative error of any bucket to 12.5%.
+ *
+ * <p>Recording into an existing histogram does not allocate. All methods are thread-safe.
+ */
+public final class DurationHistogram {
+
+  /** Number of bits used to split each power of two into linear sub-buckets. */
+  @VisibleForTesting static final int SUB_BUCKET_BITS = 3;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+  /** Highest bit position tracked; durations of {@code 2^31} ms or more share the last bucket. */
+  private static final int MAX_HIGHEST_BIT = 30;
+
+  @VisibleForTesting
+  static final int BUCKET_COUNT = (MAX_HIGHEST_BIT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+  private final MetricKey metricKey;
+  private final long[] counts = new long[BUCKET_COUNT];
+  private long totalCount;
+  private long sumMillis;
+  private long minMillis = Long.MAX_VALUE;
+  private long maxMillis = Long.MIN_VALUE;
+
+  public DurationHistogram(MetricKey metricKey) {
+    this.metricKey = Preconditions.checkNotNull(metricKey, "MetricKey cannot be null.");
+  }
+
+  /** Returns the {@link MetricKey} this histogram records durations for. */
+  public MetricKey getMetricKey() {
+    return metricKey;
+  }
+
+  /** Records a single duration of {@code timeInMillis}. */
+  public synchronized void record(long timeInMillis) {
+    Preconditions.checkArgument(timeInMillis >= 0, "Duration cannot be negative.");
+    counts[bucketIndexOf(timeInMillis)]++;
+    totalCount++;
+    sumMillis += timeInMillis;
+    minMillis = Math.min(minMillis, timeInMillis);
+    maxMillis = Math.max(maxMillis, timeInMillis);
+  }
+
+  /** Adds every value recorded in {@code other} to this histogram. */
+  public void merge(DurationHistogram other) {
+    Preconditions.checkNotNull(other, "Histogram cannot be null.");
+    Preconditions.checkArgument(
+        metricKey.equals(other.metricKey), "Cannot merge histograms of different metric keys.");
+    if (other == this) {
+      return;
+    }
+    long[] otherCounts;
+    long otherTotal;
+    long otherSum;
+    long otherMin;
+    long otherMax;
+    synchronized (other) {
+      otherCounts = other.counts.clone();
+      otherTotal = other.totalCount;
+      otherSum = other.sumMillis;
+      otherMin = other.minMillis;
+      otherMax = other.maxMillis;
+    }
+    synchronized (this) {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        counts[i] += otherCounts[i];
+      }
+      totalCount += otherTotal;
+      sumMillis += otherSum;
+      minMillis = Math.min(minMillis, otherMin);
+      maxMillis = Math.max(maxMillis, otherMax);
+    }
+  }
+
+  /** Returns the number of durations recorded since creation or the last flush. */
+  public synchronized long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * Writes the recorded distribution into a {@link Bundle} suitable for {@link
+   * SetupMetricsLoggingConstants.MetricType#DURATION_HISTOGRAM_EVENT} and resets this histogram.
+   * Only the range of buckets between the first and the last non-empty bucket is sent.
+   *
+   * @return the bundle, or {@code null} when nothing was recorded.
+   */
+  public Bundle flushToBundle() {
+    long[] compactCounts;
+    int firstBucket;
+    long flushedCount;
+    long flushedSum;
+    long flushedMin;
+    long flushedMax;
+    synchronized (this) {
+      if (totalCount == 0) {
+        return null;
+      }
+      firstBucket = 0;
+      while (counts[firstBucket] == 0) {
+        firstBucket++;
+      }
+      int lastBucket = BUCKET_COUNT - 1;
+      while (counts[lastBucket] == 0) {
+        lastBucket--;
+      }
+      compactCounts = Arrays.copyOfRange(counts, firstBucket, lastBucket + 1);
+      flushedCount = totalCount;
+      flushedSum = sumMillis;
+      flushedMin = minMillis;
+      flushedMax = maxMillis;
+      resetLocked();
+    }
+
+    Bundle bundle = new Bundle();
+    bundle.putParcelable(MetricBundleKeys.METRIC_KEY_BUNDLE, MetricKey.fromMetricKey(metricKey));
+    bundle.putInt(MetricBundleKeys.HISTOGRAM_SUB_BUCKET_BITS_INT, SUB_BUCKET_BITS);
+    bundle.putInt(MetricBundleKeys.HISTOGRAM_FIRST_BUCKET_INT, firstBucket);
+    bundle.putLongArray(MetricBundleKeys.HISTOGRAM_BUCKET_COUNTS_LONG_ARRAY, compactCounts);
+    bundle.putLong(MetricBundleKeys.HISTOGRAM_TOTAL_COUNT_LONG, flushedCount);
+    bundle.putLong(MetricBundleKeys.HISTOGRAM_SUM_MILLIS_LONG, flushedSum);
+    bundle.putLong(MetricBundleKeys.HISTOGRAM_MIN_MILLIS_LONG, flushedMin);
+    bundle.putLong(MetricBundleKeys.HISTOGRAM_MAX_MILLIS_LONG, flushedMax);
+    return bundle;
+  }
+
+  private void resetLocked() {
+    Arrays.fill(counts, 0);
+    totalCount = 0;
+    sumMillis = 0;
+    minMillis = Long.MAX_VALUE;
+    maxMillis = Long.MIN_VALUE;
+  }
+
+  /** Returns the index of the bucket {@code value} falls into. */
+  @VisibleForTesting
+  static int bucketIndexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    if (value >= (1L << (MAX_HIGHEST_BIT + 1))) {
+      return BUCKET_COUNT - 1;
+    }
+    int highestBit = 63 - Long.numberOfLeadingZeros(value);
+    int shift = highestBit - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & SUB_BUCKET_MASK;
+    return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /** Returns the smallest value, inclusive, that falls into the bucket at {@code index}. */
+  @VisibleForTesting
+  static long bucketLowerBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    int subBucket = index % SUB_BUCKET_COUNT;
+    return ((long) (SUB_BUCKET_COUNT + subBucket)) << shift;
+  }
+}
@@ -14,6 +14,17 @@ public final class MetricBundleConverter {
     return bundle;
   }
 
+  /**
+   * Same as {@link #createBundleForLogging(CustomEvent)}, encoding the event with the {@link
+   * CustomEvent} encoding {@code version}.
+   */
+  public static Bundle createBundleForLogging(CustomEvent customEvent, int version) {
+    Bundle bundle = new Bundle();
+    bundle.putParcelable(
+        MetricBundleKeys.CUSTOM_EVENT_BUNDLE, CustomEvent.toBundle(customEvent, version));
+    return bundle;
+  }
+
   public static Bundle createBundleForLoggingCounter(MetricKey counterName, int times) {
     Bundle bundle = new Bundle();
     bundle.putParcelable(MetricBundleKeys.METRIC_KEY_BUNDLE, MetricKey.fromMetricKey(counterName));
@@ -28,7 +28,12 @@ public interface SetupMetricsLoggingConstants {
 
   /** Enumeration of supported metric types logged to SetupWizard. */
   @Retention(RetentionPolicy.SOURCE)
-  @IntDef({MetricType.CUSTOM_EVENT, MetricType.COUNTER_EVENT, MetricType.DURATION_EVENT})
+  @IntDef({
+    MetricType.CUSTOM_EVENT,
+    MetricType.COUNTER_EVENT,
+    MetricType.DURATION_EVENT,
+    MetricType.DURATION_HISTOGRAM_EVENT
+  })
   @interface MetricType {
     /**
      * MetricType constant used when logging {@link
@@ -47,6 +52,12 @@ public interface SetupMetricsLoggingConstants {
      */
     int COUNTER_EVENT = 3;
 
+    /**
+     * MetricType constant used when logging a bucketed distribution of durations collected by
+     * {@link DurationHistogram} instead of one {@link #DURATION_EVENT} per duration.
+     */
+    int DURATION_HISTOGRAM_EVENT = 4;
+
     /** MetricType constant used for internal logging purposes. */
     int INTERNAL = 100;
   }
@@ -59,7 +70,14 @@ public interface SetupMetricsLoggingConstants {
     MetricBundleKeys.CUSTOM_EVENT,
     MetricBundleKeys.CUSTOM_EVENT_BUNDLE,
     MetricBundleKeys.TIME_MILLIS_LONG,
-    MetricBundleKeys.COUNTER_INT
+    MetricBundleKeys.COUNTER_INT,
+    MetricBundleKeys.HISTOGRAM_SUB_BUCKET_BITS_INT,
+    MetricBundleKeys.HISTOGRAM_FIRST_BUCKET_INT,
+    MetricBundleKeys.HISTOGRAM_BUCKET_COUNTS_LONG_ARRAY,
+    MetricBundleKeys.HISTOGRAM_TOTAL_COUNT_LONG,
+    MetricBundleKeys.HISTOGRAM_SUM_MILLIS_LONG,
+    MetricBundleKeys.HISTOGRAM_MIN_MILLIS_LONG,
+    MetricBundleKeys.HISTOGRAM_MAX_MILLIS_LONG
   })
   @interface MetricBundleKeys {
     /**
@@ -104,5 +122,50 @@ public interface SetupMetricsLoggingConstants {
      * com.google.android.setupcompat.logging.CustomEvent}.
      */
     String CUSTOM_EVENT_BUNDLE = "CustomEvent_bundle";
+
+    /**
+     * This key will be set when {@code metricType} is {@link MetricType#DURATION_HISTOGRAM_EVENT}
+     * with the value of type {@code int} representing the number of bits each power of two is
+     * linearly split into.
+     */
+    String HISTOGRAM_SUB_BUCKET_BITS_INT = "histogramSubBucketBits";
+
+    /**
+     * This key will be set when {@code metricType} is {@link MetricType#DURATION_HISTOGRAM_EVENT}
+     * with the value of type {@code int} representing the index of the first bucket in {@link
+     * #HISTOGRAM_BUCKET_COUNTS_LONG_ARRAY}.
+     */
+    String HISTOGRAM_FIRST_BUCKET_INT = "histogramFirstBucket";
+
+    /**
+     * This key will be set when {@code metricType} is {@link MetricType#DURATION_HISTOGRAM_EVENT}
+     * with the value of type {@code long[]} holding the counts of consecutive buckets starting at
+     * {@link #HISTOGRAM_FIRST_BUCKET_INT}.
+     */
+    String HISTOGRAM_BUCKET_COUNTS_LONG_ARRAY = "histogramBucketCounts";
+
+    /**
+     * This key will be set when {@code metricType} is {@link MetricType#DURATION_HISTOGRAM_EVENT}
+     * with the value of type {@code long} representing the number of durations recorded.
+     */
+    String HISTOGRAM_TOTAL_COUNT_LONG = "histogramTotalCount";
+
+    /**
+     * This key will be set when {@code metricType} is {@link MetricType#DURATION_HISTOGRAM_EVENT}
+     * with the value of type {@code long} representing the sum of all durations in milliseconds.
+     */
+    String HISTOGRAM_SUM_MILLIS_LONG = "histogramSumMillis";
+
+    /**
+     * This key will be set when {@code metricType} is {@link MetricType#DURATION_HISTOGRAM_EVENT}
+     * with the value of type {@code long} representing the smallest duration in milliseconds.
+     */
+    String HISTOGRAM_MIN_MILLIS_LONG = "histogramMinMillis";
+
+    /**
+     * This key will be set when {@code metricType} is {@link MetricType#DURATION_HISTOGRAM_EVENT}
+     * with the value of type {@code long} representing the largest duration in milliseconds.
+     */
+    String HISTOGRAM_MAX_MILLIS_LONG = "histogramMaxMillis";
   }
 }
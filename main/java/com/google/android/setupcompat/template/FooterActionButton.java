@@ -18,11 +18,16 @@ package com.google.android.setupcompat.template;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import androidx.annotation.Nullable;
+import androidx.annotation.StyleRes;
+import com.google.android.setupcompat.R;
 
 /** Button that can react to touch when disabled. */
 public class FooterActionButton extends Button {
@@ -30,10 +35,34 @@ public class FooterActionButton extends Button {
   @Nullable private FooterButton footerButton;
   private boolean isPrimaryButtonStyle = false;
 
+  /** Set when this button was inflated by {@link FooterActionButtonPool}. */
+  @Nullable FooterActionButtonPool.InflatedState pooledState;
+
+  /** Whether a {@link TextWatcher} was added, which the pool has no way to remove again. */
+  private boolean hasTextChangedListener = false;
+
   public FooterActionButton(Context context, AttributeSet attrs) {
     super(context, attrs);
   }
 
+  /**
+   * Creates a button from layout "suc_button" with a context themed with {@code theme}. When {@link
+   * FooterBarMixin#setBuildDefaultFooterInCode(boolean)} is enabled, an equivalent button is built
+   * without inflating XML instead: the button styles set themselves as {@code
+   * android:buttonStyle}, so the default button style of the themed context applies them.
+   */
+  @SuppressLint("InflateParams")
+  static FooterActionButton create(Context context, @StyleRes int theme) {
+    Context themedContext = new ContextThemeWrapper(context, theme);
+    if (FooterBarMixin.isBuildDefaultFooterInCode()) {
+      return new FooterActionButton(themedContext, /* attrs= */ null);
+    }
+    // Inflate a single button from XML, which when using support lib, will take advantage of
+    // the injected layout inflater and give us AppCompatButton instead.
+    LayoutInflater inflater = LayoutInflater.from(themedContext);
+    return (FooterActionButton) inflater.inflate(R.layout.suc_button, null, false);
+  }
+
   void setFooterButton(FooterButton footerButton) {
     this.footerButton = footerButton;
   }
@@ -56,6 +85,17 @@ public class FooterActionButton extends Button {
     return super.onTouchEvent(event);
   }
 
+  @Override
+  public void addTextChangedListener(TextWatcher watcher) {
+    super.addTextChangedListener(watcher);
+    hasTextChangedListener = true;
+  }
+
+  /** Returns true if a {@link TextWatcher} was ever added to this button. */
+  boolean hasTextChangedListener() {
+    return hasTextChangedListener;
+  }
+
   /**
    * Sets this footer button is primary button style.
    *
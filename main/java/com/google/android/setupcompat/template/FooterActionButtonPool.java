@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.template;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.ColorStateList;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Build.VERSION_CODES;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.LinearLayout;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.StyleRes;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.setupcompat.R;
+import com.google.android.setupcompat.internal.Preconditions;
+import com.google.android.setupcompat.util.Logger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A process-level pool of pre-inflated {@link FooterActionButton}s, so that footer buttons do not
+ * have to be inflated from {@code R.layout.suc_button} again on every screen.
+ *
+ * <p>Buttons are keyed by their button theme and by the activity theme attributes and
+ * configuration the button styles resolve against. Pooled buttons are inflated with a copy of the
+ * activity theme on top of the application context, so they never hold on to an activity. A
+ * button is reset to its inflated state when it is released, and the partner resources are then
+ * applied again by {@link FooterBarMixin} when it is reused.
+ *
+ * <p>Pooling is disabled by default. This class must only be used on the main thread.
+ */
+public final class FooterActionButtonPool {
+
+  private static final Logger LOG = new Logger("FooterActionButtonPool");
+
+  @VisibleForTesting static final int MAX_BUTTONS_PER_KEY = 2;
+  @VisibleForTesting static final int MAX_KEYS = 8;
+
+  /** Theme attributes read by the footer button styles, sorted as obtainStyledAttributes needs. */
+  private static final int[] THEME_FINGERPRINT_ATTRS =
+      sorted(
+          new int[] {
+            android.R.attr.colorAccent,
+            android.R.attr.colorButtonNormal,
+            android.R.attr.colorControlHighlight,
+            android.R.attr.textAppearanceButton,
+            R.attr.sucFooterBarButtonAllCaps,
+            R.attr.sucFooterBarButtonCornerRadius,
+            R.attr.sucFooterBarButtonFontFamily,
+            R.attr.sucFooterButtonPaddingStart,
+            R.attr.sucFooterButtonPaddingEnd
+          });
+
+  private static boolean enabled = false;
+
+  private static final LinkedHashMap<PoolKey, ArrayDeque<FooterActionButton>> pool =
+      new LinkedHashMap<PoolKey, ArrayDeque<FooterActionButton>>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true) {
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<PoolKey, ArrayDeque<FooterActionButton>> eldest) {
+          return size() > MAX_KEYS;
+        }
+      };
+
+  /** Theme fingerprints by theme, so that acquiring a button does not resolve the theme again. */
+  private static final WeakHashMap<Resources.Theme, ThemeFingerprint> themeFingerprints =
+      new WeakHashMap<>();
+
+  /**
+   * Sets whether footer buttons are pooled. Disabling the pool drops every pooled button.
+   *
+   * <p>Pooled buttons are created on the application context with a copy of the activity theme, so
+   * that they can outlive the activity. As a result, {@link View#getContext()} of a pooled button
+   * is not the activity: click listeners must not cast it to {@code Activity}, and should reach the
+   * activity through the layout or their own fields instead. Theme attributes resolved through the
+   * context of a pooled button also reflect the activity theme at the time the button was created,
+   * without any change made to the activity theme afterwards.
+   */
+  @MainThread
+  public static void setEnabled(boolean enabled) {
+    Preconditions.ensureOnMainThread("setEnabled");
+    FooterActionButtonPool.enabled = enabled;
+    if (!enabled) {
+      pool.clear();
+    }
+  }
+
+  /** Returns whether footer buttons are pooled. */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Pre-inflates the primary and secondary footer buttons for the theme of {@code context} the
+   * next time the main thread is idle, so that the next screen using the same theme finds them in
+   * the pool. Does nothing if pooling is disabled.
+   *
+   * @param applyDynamicColor whether the next screen applies dynamic color to its buttons.
+   */
+  @MainThread
+  public static void preinflateWhenIdle(@NonNull Context context, boolean applyDynamicColor) {
+    Preconditions.ensureOnMainThread("preinflateWhenIdle");
+    if (!enabled) {
+      return;
+    }
+    // Copy the theme now, the idle handler must not keep the activity alive.
+    Context poolContext = new PoolContext(context);
+    Looper.myQueue()
+        .addIdleHandler(
+            new MessageQueue.IdleHandler() {
+              @Override
+              public boolean queueIdle() {
+                preinflate(R.style.SucPartnerCustomizationButton_Primary);
+                preinflate(R.style.SucPartnerCustomizationButton_Secondary);
+                return false;
+              }
+
+              private void preinflate(@StyleRes int theme) {
+                if (!enabled) {
+                  return;
+                }
+                PoolKey key = getKey(poolContext, theme, applyDynamicColor);
+                ArrayDeque<FooterActionButton> buttons = pool.get(key);
+                if (buttons == null || buttons.isEmpty()) {
+                  offer(key, inflate(poolContext, theme, key));
+                }
+              }
+            });
+  }
+
+  /**
+   * Returns a pooled button for {@code theme} on top of the theme of {@code context}, or a newly
+   * inflated one that can be released to the pool.
+   */
+  static FooterActionButton acquire(
+      Context context, @StyleRes int theme, boolean applyDynamicColor) {
+    PoolKey key = getKey(context, theme, applyDynamicColor);
+    ArrayDeque<FooterActionButton> buttons = pool.get(key);
+    FooterActionButton button = buttons == null ? null : buttons.poll();
+    if (button != null) {
+      return button;
+    }
+    if (LOG.isD()) {
+      LOG.atDebug("No pooled footer button for theme " + theme + ", inflating one.");
+    }
+    return inflate(new PoolContext(context), theme, key);
+  }
+
+  /**
+   * Resets {@code button} to its inflated state and returns it to the pool. Buttons that were not
+   * inflated by the pool are ignored. Buttons that were given a {@link android.text.TextWatcher}
+   * are not pooled again, since text watchers cannot be removed without a reference to them and
+   * would keep the previous screen alive.
+   */
+  static void release(FooterActionButton button) {
+    InflatedState state = button.pooledState;
+    if (state == null) {
+      return;
+    }
+    reset(button, state);
+    if (button.hasTextChangedListener()) {
+      button.pooledState = null;
+      LOG.atDebug("Not pooling a footer button with a text watcher.");
+      return;
+    }
+    if (enabled) {
+      offer(state.key, button);
+    }
+  }
+
+  /** Returns the number of buttons in the pool. */
+  @VisibleForTesting
+  static int getPooledButtonCount() {
+    int count = 0;
+    for (ArrayDeque<FooterActionButton> buttons : pool.values()) {
+      count += buttons.size();
+    }
+    return count;
+  }
+
+  private static void offer(PoolKey key, FooterActionButton button) {
+    ArrayDeque<FooterActionButton> buttons = pool.get(key);
+    if (buttons == null) {
+      buttons = new ArrayDeque<>(MAX_BUTTONS_PER_KEY);
+      pool.put(key, buttons);
+    }
+    if (buttons.size() < MAX_BUTTONS_PER_KEY) {
+      buttons.offer(button);
+    }
+  }
+
+  private static FooterActionButton inflate(
+      Context poolContext, @StyleRes int theme, PoolKey key) {
+    FooterActionButton button = FooterActionButton.create(poolContext, theme);
+    button.pooledState = new InflatedState(key, button);
+    return button;
+  }
+
+  private static PoolKey getKey(Context context, @StyleRes int theme, boolean applyDynamicColor) {
+    return new PoolKey(theme, applyDynamicColor, getThemeFingerprint(context));
+  }
+
+  /**
+   * Returns the configuration and values of the theme attributes the footer button styles resolve
+   * against, computed once per theme and configuration.
+   */
+  private static String getThemeFingerprint(Context context) {
+    Resources.Theme contextTheme = context.getTheme();
+    Configuration configuration = context.getResources().getConfiguration();
+    ThemeFingerprint fingerprint = themeFingerprints.get(contextTheme);
+    if (fingerprint != null && fingerprint.configuration.equals(configuration)) {
+      return fingerprint.value;
+    }
+    StringBuilder value = new StringBuilder().append(configuration.hashCode());
+    TypedArray a = context.obtainStyledAttributes(THEME_FINGERPRINT_ATTRS);
+    try {
+      TypedValue typedValue = new TypedValue();
+      for (int i = 0; i < THEME_FINGERPRINT_ATTRS.length; i++) {
+        value.append(':');
+        if (a.getValue(i, typedValue)) {
+          value
+              .append(typedValue.type)
+              .append('/')
+              .append(typedValue.data)
+              .append('/')
+              .append(typedValue.string);
+        }
+      }
+    } finally {
+      a.recycle();
+    }
+    fingerprint = new ThemeFingerprint(new Configuration(configuration), value.toString());
+    themeFingerprints.put(contextTheme, fingerprint);
+    return fingerprint.value;
+  }
+
+  @SuppressWarnings("deprecation") // setBackgroundDrawable is needed before Jelly Bean
+  private static void reset(FooterActionButton button, InflatedState state) {
+    ViewParent parent = button.getParent();
+    if (parent instanceof ViewGroup) {
+      ((ViewGroup) parent).removeView(button);
+    }
+    // Drop every listener an app may have set through the button view, so that none of them keeps
+    // the previous screen alive or fires on the next one.
+    button.setOnClickListener(null);
+    button.setOnTouchListener(null);
+    button.setOnLongClickListener(null);
+    button.setOnCreateContextMenuListener(null);
+    button.setLongClickable(state.longClickable);
+    button.setOnFocusChangeListener(null);
+    button.setOnKeyListener(null);
+    button.setOnGenericMotionListener(null);
+    button.setOnHoverListener(null);
+    button.setOnDragListener(null);
+    button.setAccessibilityDelegate(null);
+    button.setFooterButton(null);
+    button.setPrimaryButtonStyle(false);
+    button.setId(View.NO_ID);
+    button.setTag(null);
+    button.setTag(R.id.suc_customization_default_text_color, null);
+    button.setText(null);
+    button.setContentDescription(null);
+    button.setVisibility(View.VISIBLE);
+    button.setEnabled(true);
+    button.setPressed(false);
+    button.setSelected(false);
+    button.setAlpha(1f);
+    button.setTranslationX(0f);
+    button.setTranslationY(0f);
+    button.setScaleX(1f);
+    button.setScaleY(1f);
+    button.setLayoutParams(
+        new LinearLayout.LayoutParams(
+            ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+
+    // Undo the partner resources applied by FooterBarMixin.
+    button.setTextColor(state.textColors);
+    button.setTextSize(TypedValue.COMPLEX_UNIT_PX, state.textSize);
+    button.setTypeface(state.typeface);
+    button.setMinHeight(state.minHeight);
+    button.setCompoundDrawables(null, null, null, null);
+    Drawable background =
+        state.background != null ? state.background.newDrawable(button.getResources()) : null;
+    if (Build.VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN) {
+      button.setBackground(background);
+    } else {
+      button.setBackgroundDrawable(background);
+    }
+    if (Build.VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN_MR1) {
+      button.setTextLocale(Locale.getDefault());
+      button.setPaddingRelative(
+          state.paddingStart, state.paddingTop, state.paddingEnd, state.paddingBottom);
+    } else {
+      button.setPadding(
+          state.paddingStart, state.paddingTop, state.paddingEnd, state.paddingBottom);
+    }
+    button.jumpDrawablesToCurrentState();
+  }
+
+  private static int[] sorted(int[] attrs) {
+    Arrays.sort(attrs);
+    return attrs;
+  }
+
+  /** The state of a pooled button right after inflation, restored when it is released. */
+  static final class InflatedState {
+    private final PoolKey key;
+    private final ColorStateList textColors;
+    private final float textSize;
+    @Nullable private final Typeface typeface;
+    private final int minHeight;
+    @Nullable private final Drawable.ConstantState background;
+    private final int paddingStart;
+    private final int paddingTop;
+    private final int paddingEnd;
+    private final int paddingBottom;
+    private final boolean longClickable;
+
+    private InflatedState(PoolKey key, FooterActionButton button) {
+      this.key = key;
+      longClickable = button.isLongClickable();
+      textColors = button.getTextColors();
+      textSize = button.getTextSize();
+      typeface = button.getTypeface();
+      minHeight = Build.VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN ? button.getMinHeight() : 0;
+      Drawable inflatedBackground = button.getBackground();
+      background = inflatedBackground != null ? inflatedBackground.getConstantState() : null;
+      if (Build.VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN_MR1) {
+        paddingStart = button.getPaddingStart();
+        paddingEnd = button.getPaddingEnd();
+      } else {
+        paddingStart = button.getPaddingLeft();
+        paddingEnd = button.getPaddingRight();
+      }
+      paddingTop = button.getPaddingTop();
+      paddingBottom = button.getPaddingBottom();
+    }
+  }
+
+  /** Identifies the pooled buttons interchangeable for a button theme on top of a theme. */
+  private static final class PoolKey {
+    @StyleRes private final int theme;
+    private final boolean applyDynamicColor;
+    private final String themeFingerprint;
+
+    PoolKey(@StyleRes int theme, boolean applyDynamicColor, String themeFingerprint) {
+      this.theme = theme;
+      this.applyDynamicColor = applyDynamicColor;
+      this.themeFingerprint = themeFingerprint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof PoolKey)) {
+        return false;
+      }
+      PoolKey that = (PoolKey) o;
+      return theme == that.theme
+          && applyDynamicColor == that.applyDynamicColor
+          && themeFingerprint.equals(that.themeFingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = theme;
+      result = 31 * result + (applyDynamicColor ? 1 : 0);
+      result = 31 * result + themeFingerprint.hashCode();
+      return result;
+    }
+  }
+
+  private static final class ThemeFingerprint {
+    private final Configuration configuration;
+    private final String value;
+
+    ThemeFingerprint(Configuration configuration, String value) {
+      this.configuration = configuration;
+      this.value = value;
+    }
+  }
+
+  /**
+   * An application context carrying a copy of the theme of an activity, so that buttons inflated
+   * with it resolve the same theme attributes without referencing the activity.
+   */
+  private static final class PoolContext extends ContextWrapper {
+    private final Resources resources;
+    private final Resources.Theme theme;
+
+    PoolContext(Context context) {
+      super(context.getApplicationContext());
+      resources = context.getResources();
+      theme = resources.newTheme();
+      theme.setTo(context.getTheme());
+    }
+
+    @Override
+    public Resources getResources() {
+      return resources;
+    }
+
+    @Override
+    public Resources.Theme getTheme() {
+      return theme;
+    }
+  }
+
+  private FooterActionButtonPool() {
+    throw new AssertionError("Should not be instantiated");
+  }
+}
@@ -18,7 +18,6 @@ package com.google.android.setupcompat.template;
 
 import static com.google.android.setupcompat.internal.Preconditions.ensureOnMainThread;
 
-import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.Configuration;
@@ -26,13 +25,17 @@ import android.content.res.TypedArray;
 import android.graphics.Color;
 import android.os.Build;
 import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PersistableBundle;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.ContextThemeWrapper;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.view.ViewStub;
 import android.widget.Button;
 import android.widget.LinearLayout;
@@ -55,6 +58,9 @@ import com.google.android.setupcompat.logging.internal.FooterBarMixinMetrics;
 import com.google.android.setupcompat.partnerconfig.PartnerConfig;
 import com.google.android.setupcompat.partnerconfig.PartnerConfigHelper;
 import com.google.android.setupcompat.template.FooterButton.ButtonType;
+import com.google.android.setupcompat.view.ButtonBarLayout;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -91,75 +97,145 @@ public class FooterBarMixin implements Mixin {
   private boolean removeFooterBarWhenEmpty = true;
   private boolean isSecondaryButtonInPrimaryStyle = false;
 
+  private final ArrayList<FooterActionButton> pooledButtons = new ArrayList<>();
+  // Space views reused by repopulateButtons.
+  @Nullable private View leadingSpace;
+  @Nullable private View middleSpace;
+
+  // Footer button changes are staged and applied on the next frame.
+  private final ArrayList<ButtonStateUpdater> pendingButtonStateUpdaters = new ArrayList<>();
+  private boolean buttonStateUpdateScheduled = false;
+
   private static final AtomicInteger nextGeneratedId = new AtomicInteger(1);
 
+  private static volatile boolean buildDefaultFooterInCode = false;
+
   @VisibleForTesting public final FooterBarMixinMetrics metrics = new FooterBarMixinMetrics();
 
-  private FooterButton.OnButtonEventListener createButtonEventListener(@IdRes int id) {
-
-    return new FooterButton.OnButtonEventListener() {
-
-      @Override
-      public void onEnabledChanged(boolean enabled) {
-        if (buttonContainer != null) {
-          Button button = buttonContainer.findViewById(id);
-          if (button != null) {
-            button.setEnabled(enabled);
-            if (applyPartnerResources && !applyDynamicColor) {
-
-              updateButtonTextColorWithStates(
-                  button,
-                  (id == primaryButtonId || isSecondaryButtonInPrimaryStyle)
-                      ? PartnerConfig.CONFIG_FOOTER_PRIMARY_BUTTON_TEXT_COLOR
-                      : PartnerConfig.CONFIG_FOOTER_SECONDARY_BUTTON_TEXT_COLOR,
-                  (id == primaryButtonId || isSecondaryButtonInPrimaryStyle)
-                      ? PartnerConfig.CONFIG_FOOTER_PRIMARY_BUTTON_DISABLED_TEXT_COLOR
-                      : PartnerConfig.CONFIG_FOOTER_SECONDARY_BUTTON_DISABLED_TEXT_COLOR);
-            }
-          }
-        }
-      }
+  /**
+   * Stages the changes of a {@link FooterButton} and applies them to its button view once per
+   * frame, so that several changes made in the same frame only update the view once. The enabled
+   * state is applied right away, since it is what keeps a disabled button from handling clicks, and
+   * so is the visibility, since callers check the footer bar right after changing it.
+   */
+  private final class ButtonStateUpdater implements FooterButton.OnButtonEventListener {
 
-      @Override
-      public void onVisibilityChanged(int visibility) {
-        if (buttonContainer != null) {
-          Button button = buttonContainer.findViewById(id);
-          if (button != null) {
-            button.setVisibility(visibility);
-            autoSetButtonBarVisibility();
-          }
-        }
+    private static final int DIRTY_TEXT = 1;
+    private static final int DIRTY_LOCALE = 1 << 1;
+    private static final int DIRTY_DIRECTION = 1 << 2;
+
+    private final Button button;
+    private final FooterButtonPartnerConfig partnerConfig;
+    private int dirtyFlags;
+    private CharSequence text;
+    @Nullable private Locale locale;
+    private int direction;
+
+    ButtonStateUpdater(Button button, FooterButtonPartnerConfig partnerConfig) {
+      this.button = button;
+      this.partnerConfig = partnerConfig;
+    }
+
+    @Override
+    public void onEnabledChanged(boolean enabled) {
+      if (buttonContainer == null || button.getParent() != buttonContainer) {
+        return;
+      }
+      button.setEnabled(enabled);
+      if (applyPartnerResources && !applyDynamicColor) {
+        FooterButtonStyleUtils.updateButtonTextColorWithStates(
+            button, FooterButtonStylePlan.get(context, partnerConfig));
       }
+    }
 
-      @Override
-      public void onTextChanged(CharSequence text) {
-        if (buttonContainer != null) {
-          Button button = buttonContainer.findViewById(id);
-          if (button != null) {
-            button.setText(text);
-          }
-        }
+    @Override
+    public void onVisibilityChanged(int visibility) {
+      if (buttonContainer == null || button.getParent() != buttonContainer) {
+        return;
       }
+      button.setVisibility(visibility);
+      autoSetButtonBarVisibility();
+    }
+
+    @Override
+    public void onTextChanged(CharSequence text) {
+      this.text = text;
+      markDirty(DIRTY_TEXT);
+    }
+
+    @Override
+    public void onLocaleChanged(Locale locale) {
+      this.locale = locale;
+      markDirty(DIRTY_LOCALE);
+    }
 
-      @Override
-      @TargetApi(VERSION_CODES.JELLY_BEAN_MR1)
-      public void onLocaleChanged(Locale locale) {
-        if (buttonContainer != null) {
-          Button button = buttonContainer.findViewById(id);
-          if (button != null && locale != null) {
-            button.setTextLocale(locale);
-          }
-        }
+    @Override
+    public void onDirectionChanged(int direction) {
+      this.direction = direction;
+      markDirty(DIRTY_DIRECTION);
+    }
+
+    private void markDirty(int flag) {
+      if (dirtyFlags == 0) {
+        pendingButtonStateUpdaters.add(this);
+        scheduleButtonStateUpdate();
       }
+      dirtyFlags |= flag;
+    }
 
-      @Override
-      @TargetApi(VERSION_CODES.JELLY_BEAN_MR1)
-      public void onDirectionChanged(int direction) {
-        if (buttonContainer != null && direction != -1) {
-          buttonContainer.setLayoutDirection(direction);
-        }
+    /** Applies the staged changes to the button view. */
+    @TargetApi(VERSION_CODES.JELLY_BEAN_MR1)
+    void apply() {
+      int flags = dirtyFlags;
+      dirtyFlags = 0;
+      if (buttonContainer == null) {
+        return;
+      }
+      if ((flags & DIRTY_DIRECTION) != 0 && direction != -1) {
+        buttonContainer.setLayoutDirection(direction);
+      }
+      if (button.getParent() != buttonContainer) {
+        // The button was replaced or released.
+        return;
       }
-    };
+      if ((flags & DIRTY_TEXT) != 0) {
+        button.setText(text);
+      }
+      if ((flags & DIRTY_LOCALE) != 0 && locale != null) {
+        button.setTextLocale(locale);
+      }
+    }
+  }
+
+  private void scheduleButtonStateUpdate() {
+    if (buttonStateUpdateScheduled) {
+      return;
+    }
+    buttonStateUpdateScheduled = true;
+    if (Build.VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN) {
+      postButtonStateFrameCallback();
+    } else {
+      new Handler(Looper.getMainLooper()).post(this::onButtonStateUpdate);
+    }
+  }
+
+  @TargetApi(VERSION_CODES.JELLY_BEAN)
+  private void postButtonStateFrameCallback() {
+    Choreographer.getInstance().postFrameCallback(frameTimeNanos -> onButtonStateUpdate());
+  }
+
+  private void onButtonStateUpdate() {
+    // Only the posted callback clears the flag, so that a flush in between does not post another.
+    buttonStateUpdateScheduled = false;
+    applyPendingButtonStates();
+  }
+
+  /** Applies the footer button changes staged since the last frame. */
+  private void applyPendingButtonStates() {
+    // Updaters may be staged again while the views are updated, so take them one at a time.
+    while (!pendingButtonStateUpdaters.isEmpty()) {
+      pendingButtonStateUpdaters.remove(pendingButtonStateUpdaters.size() - 1).apply();
+    }
   }
 
   /**
@@ -222,8 +298,6 @@ public class FooterBarMixin implements Mixin {
       metrics.logSecondaryButtonInitialStateVisibility(
           /* isVisible= */ true, /* isUsingXml= */ true);
     }
-
-    FooterButtonStyleUtils.clearSavedDefaultTextColor();
   }
 
   private boolean isFooterButtonAlignedEnd() {
@@ -246,12 +320,16 @@ public class FooterBarMixin implements Mixin {
         && PartnerConfigHelper.isNeutralButtonStyleEnabled(context);
   }
 
-  private View addSpace() {
-    LinearLayout buttonContainer = ensureFooterInflated();
-    View space = new View(context);
-    space.setLayoutParams(new LayoutParams(0, 0, 1.0f));
-    space.setVisibility(View.INVISIBLE);
-    buttonContainer.addView(space);
+  /** Returns {@code space}, or a new space view if it is null, with its layout params reset. */
+  private View prepareSpace(@Nullable View space) {
+    if (space == null) {
+      space = new View(context);
+      space.setVisibility(View.INVISIBLE);
+    }
+    LayoutParams params = (LayoutParams) space.getLayoutParams();
+    if (params == null || params.width != 0 || params.height != 0 || params.weight != 1.0f) {
+      space.setLayoutParams(new LayoutParams(0, 0, 1.0f));
+    }
     return space;
   }
 
@@ -365,15 +443,19 @@ public class FooterBarMixin implements Mixin {
   }
 
   /**
-   * Inflate FooterActionButton with layout "suc_button". Subclasses can implement this method to
-   * modify the footer button layout as necessary.
+   * Inflates FooterActionButton with layout "suc_button", or takes it from {@link
+   * FooterActionButtonPool} when pooling is enabled. Subclasses can implement this method to modify
+   * the footer button layout as necessary.
    */
-  @SuppressLint("InflateParams")
   protected FooterActionButton createThemedButton(Context context, @StyleRes int theme) {
-    // Inflate a single button from XML, which when using support lib, will take advantage of
-    // the injected layout inflater and give us AppCompatButton instead.
-    LayoutInflater inflater = LayoutInflater.from(new ContextThemeWrapper(context, theme));
-    return (FooterActionButton) inflater.inflate(R.layout.suc_button, null, false);
+    // Pooled buttons are restyled by the partner resources when reused, so they are only used
+    // while partner resources are applied.
+    if (applyPartnerResources && FooterActionButtonPool.isEnabled()) {
+      FooterActionButton button = FooterActionButtonPool.acquire(context, theme, applyDynamicColor);
+      pooledButtons.add(button);
+      return button;
+    }
+    return FooterActionButton.create(context, theme);
   }
 
   /** Sets primary button for footer. */
@@ -428,6 +510,7 @@ public class FooterBarMixin implements Mixin {
 
   @VisibleForTesting(otherwise = VisibleForTesting.PROTECTED)
   public Button getPrimaryButtonView() {
+    applyPendingButtonStates();
     return buttonContainer == null ? null : buttonContainer.findViewById(primaryButtonId);
   }
 
@@ -508,14 +591,15 @@ public class FooterBarMixin implements Mixin {
     LinearLayout buttonContainer = ensureFooterInflated();
     Button tempPrimaryButton = getPrimaryButtonView();
     Button tempSecondaryButton = getSecondaryButtonView();
-    buttonContainer.removeAllViews();
+    ArrayList<View> children = new ArrayList<>(4);
 
     boolean isEvenlyWeightedButtons = isFooterButtonsEvenlyWeighted();
     boolean isLandscape =
         context.getResources().getConfiguration().orientation
             == Configuration.ORIENTATION_LANDSCAPE;
     if (isLandscape && isEvenlyWeightedButtons && isFooterButtonAlignedEnd()) {
-      addSpace();
+      leadingSpace = prepareSpace(leadingSpace);
+      children.add(leadingSpace);
     }
 
     if (tempSecondaryButton != null) {
@@ -529,59 +613,67 @@ public class FooterBarMixin implements Mixin {
             buttonContainer.getPaddingRight(),
             buttonContainer.getPaddingBottom());
       }
-      buttonContainer.addView(tempSecondaryButton);
+      children.add(tempSecondaryButton);
     }
     if (!isFooterButtonAlignedEnd()
         && (!isEvenlyWeightedButtons || (isEvenlyWeightedButtons && isLandscape))) {
-      addSpace();
+      middleSpace = prepareSpace(middleSpace);
+      children.add(middleSpace);
     }
     if (tempPrimaryButton != null) {
-      buttonContainer.addView(tempPrimaryButton);
+      children.add(tempPrimaryButton);
     }
 
+    updateChildren(buttonContainer, children);
     setEvenlyWeightedButtons(tempPrimaryButton, tempSecondaryButton, isEvenlyWeightedButtons);
   }
 
+  /**
+   * Makes {@code children} the children of {@code buttonContainer}, in order. Children already in
+   * place are left alone, so that the footer bar is only laid out again when its content changes.
+   */
+  private static void updateChildren(LinearLayout buttonContainer, List<View> children) {
+    for (int i = 0; i < children.size(); i++) {
+      View child = children.get(i);
+      if (i < buttonContainer.getChildCount() && buttonContainer.getChildAt(i) == child) {
+        continue;
+      }
+      ViewParent parent = child.getParent();
+      if (parent instanceof ViewGroup) {
+        ((ViewGroup) parent).removeView(child);
+      }
+      buttonContainer.addView(child, i);
+    }
+    int childCount = buttonContainer.getChildCount();
+    if (childCount > children.size()) {
+      buttonContainer.removeViews(children.size(), childCount - children.size());
+    }
+  }
+
   private void setEvenlyWeightedButtons(
       Button primaryButton, Button secondaryButton, boolean isEvenlyWeighted) {
     if (primaryButton != null && secondaryButton != null && isEvenlyWeighted) {
-      LinearLayout.LayoutParams primaryLayoutParams =
-          (LinearLayout.LayoutParams) primaryButton.getLayoutParams();
-      if (null != primaryLayoutParams) {
-        primaryLayoutParams.width = 0;
-        primaryLayoutParams.weight = 1.0f;
-        primaryButton.setLayoutParams(primaryLayoutParams);
-      }
-
-      LinearLayout.LayoutParams secondaryLayoutParams =
-          (LinearLayout.LayoutParams) secondaryButton.getLayoutParams();
-      if (null != secondaryLayoutParams) {
-        secondaryLayoutParams.width = 0;
-        secondaryLayoutParams.weight = 1.0f;
-        secondaryButton.setLayoutParams(secondaryLayoutParams);
-      }
+      updateButtonWeight(primaryButton, /* width= */ 0, /* weight= */ 1.0f);
+      updateButtonWeight(secondaryButton, /* width= */ 0, /* weight= */ 1.0f);
     } else {
       if (primaryButton != null) {
-        LinearLayout.LayoutParams primaryLayoutParams =
-            (LinearLayout.LayoutParams) primaryButton.getLayoutParams();
-        if (null != primaryLayoutParams) {
-          primaryLayoutParams.width = ViewGroup.LayoutParams.WRAP_CONTENT;
-          primaryLayoutParams.weight = 0;
-          primaryButton.setLayoutParams(primaryLayoutParams);
-        }
+        updateButtonWeight(primaryButton, ViewGroup.LayoutParams.WRAP_CONTENT, /* weight= */ 0);
       }
       if (secondaryButton != null) {
-        LinearLayout.LayoutParams secondaryLayoutParams =
-            (LinearLayout.LayoutParams) secondaryButton.getLayoutParams();
-        if (null != secondaryLayoutParams) {
-          secondaryLayoutParams.width = ViewGroup.LayoutParams.WRAP_CONTENT;
-          secondaryLayoutParams.weight = 0;
-          secondaryButton.setLayoutParams(secondaryLayoutParams);
-        }
+        updateButtonWeight(secondaryButton, ViewGroup.LayoutParams.WRAP_CONTENT, /* weight= */ 0);
       }
     }
   }
 
+  private static void updateButtonWeight(Button button, int width, float weight) {
+    LinearLayout.LayoutParams layoutParams = (LinearLayout.LayoutParams) button.getLayoutParams();
+    if (null != layoutParams && (layoutParams.width != width || layoutParams.weight != weight)) {
+      layoutParams.width = width;
+      layoutParams.weight = weight;
+      button.setLayoutParams(layoutParams);
+    }
+  }
+
   /**
    * Notifies that the footer button has been inInflated and add to the view hierarchy. Calling
    * super is necessary while subclass implement it.
@@ -627,6 +719,7 @@ public class FooterBarMixin implements Mixin {
 
   @VisibleForTesting
   public LinearLayout getButtonContainer() {
+    applyPendingButtonStates();
     return buttonContainer;
   }
 
@@ -672,6 +765,7 @@ public class FooterBarMixin implements Mixin {
 
   @VisibleForTesting(otherwise = VisibleForTesting.PROTECTED)
   public Button getSecondaryButtonView() {
+    applyPendingButtonStates();
     return buttonContainer == null ? null : buttonContainer.findViewById(secondaryButtonId);
   }
 
@@ -712,7 +806,8 @@ public class FooterBarMixin implements Mixin {
     button.setEnabled(footerButton.isEnabled());
     button.setFooterButton(footerButton);
 
-    footerButton.setOnButtonEventListener(createButtonEventListener(button.getId()));
+    footerButton.setOnButtonEventListener(
+        new ButtonStateUpdater(button, footerButtonPartnerConfig));
     return button;
   }
 
@@ -729,26 +824,6 @@ public class FooterBarMixin implements Mixin {
         applyDynamicColor,
         /* isButtonIconAtEnd= */ (button.getId() == primaryButtonId),
         footerButtonPartnerConfig);
-    if (!applyDynamicColor) {
-      // adjust text color based on enabled state
-      updateButtonTextColorWithStates(
-          button,
-          footerButtonPartnerConfig.getButtonTextColorConfig(),
-          footerButtonPartnerConfig.getButtonDisableTextColorConfig());
-    }
-  }
-
-  private void updateButtonTextColorWithStates(
-      Button button,
-      PartnerConfig buttonTextColorConfig,
-      PartnerConfig buttonTextDisabledColorConfig) {
-    if (button.isEnabled()) {
-      FooterButtonStyleUtils.updateButtonTextEnabledColorWithPartnerConfig(
-          context, button, buttonTextColorConfig);
-    } else {
-      FooterButtonStyleUtils.updateButtonTextDisabledColorWithPartnerConfig(
-          context, button, buttonTextDisabledColorConfig);
-    }
   }
 
   private static PartnerConfig getDrawablePartnerConfig(@ButtonType int buttonType) {
@@ -786,7 +861,30 @@ public class FooterBarMixin implements Mixin {
     return result;
   }
 
+  /**
+   * Sets whether the default footer bar and footer buttons are built in code instead of being
+   * inflated from layouts "suc_footer_button_bar" and "suc_button". This skips XML inflation, but
+   * ignores any overlay of these layouts by the app or the partner, so it must only be enabled when
+   * neither layout is overridden. Disabled by default.
+   */
+  public static void setBuildDefaultFooterInCode(boolean enabled) {
+    buildDefaultFooterInCode = enabled;
+  }
+
+  /** Returns whether the default footer bar and footer buttons are built in code. */
+  public static boolean isBuildDefaultFooterInCode() {
+    return buildDefaultFooterInCode;
+  }
+
+  /**
+   * Inflates {@code footer} in place of the footer stub. The default layout "suc_footer_button_bar"
+   * is built in code instead when {@link #setBuildDefaultFooterInCode(boolean)} is enabled.
+   * Subclasses can implement this method to modify the footer bar layout as necessary.
+   */
   protected View inflateFooter(@LayoutRes int footer) {
+    if (footer == R.layout.suc_footer_button_bar && buildDefaultFooterInCode) {
+      return buildFooterButtonBar();
+    }
     if (Build.VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN) {
       LayoutInflater inflater =
           LayoutInflater.from(
@@ -797,6 +895,52 @@ public class FooterBarMixin implements Mixin {
     return footerStub.inflate();
   }
 
+  /**
+   * Builds the equivalent of layout "suc_footer_button_bar" in code and replaces the footer stub
+   * with it, the same way {@link ViewStub#inflate()} does.
+   */
+  private View buildFooterButtonBar() {
+    ViewParent stubParent = footerStub.getParent();
+    if (!(stubParent instanceof ViewGroup)) {
+      throw new IllegalStateException("ViewStub must have a non-null ViewGroup viewParent");
+    }
+    ButtonBarLayout buttonBar = new ButtonBarLayout(context);
+    buttonBar.setId(R.id.suc_footer_button_bar);
+    // Attributes of style "SucPartnerCustomizationButtonBar.Stackable". The paddings are set by
+    // onFooterBarInflated, the minimum height is read from the style.
+    buttonBar.setOrientation(LinearLayout.HORIZONTAL);
+    buttonBar.setBaselineAligned(false);
+    buttonBar.setClipChildren(false);
+    buttonBar.setClipToPadding(false);
+    buttonBar.setGravity(Gravity.CENTER);
+    TypedArray a =
+        context.obtainStyledAttributes(
+            /* set= */ null,
+            new int[] {android.R.attr.minHeight},
+            /* defStyleAttr= */ 0,
+            R.style.SucPartnerCustomizationButtonBar_Stackable);
+    buttonBar.setMinimumHeight(a.getDimensionPixelSize(0, 0));
+    a.recycle();
+
+    ViewGroup parent = (ViewGroup) stubParent;
+    int index = parent.indexOfChild(footerStub);
+    parent.removeViewInLayout(footerStub);
+    if (footerStub.getInflatedId() != View.NO_ID) {
+      buttonBar.setId(footerStub.getInflatedId());
+    }
+    ViewGroup.LayoutParams layoutParams = footerStub.getLayoutParams();
+    if (layoutParams != null) {
+      parent.addView(buttonBar, index, layoutParams);
+    } else {
+      parent.addView(
+          buttonBar,
+          index,
+          new ViewGroup.LayoutParams(
+              ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+    }
+    return buttonBar;
+  }
+
   private void updateFooterBarPadding(
       LinearLayout buttonContainer, int left, int top, int right, int bottom) {
     if (buttonContainer == null) {
@@ -833,6 +977,18 @@ public class FooterBarMixin implements Mixin {
     metrics.updateButtonVisibility(isPrimaryButtonVisible(), isSecondaryButtonVisible());
   }
 
+  /**
+   * Returns the buttons taken from {@link FooterActionButtonPool} to the pool. The buttons are
+   * removed from the footer bar, so this must only be called once the layout is going away.
+   */
+  @MainThread
+  public void releasePooledButtons() {
+    for (int i = 0; i < pooledButtons.size(); i++) {
+      FooterActionButtonPool.release(pooledButtons.get(i));
+    }
+    pooledButtons.clear();
+  }
+
   /**
    * Assigns logging metrics to bundle for PartnerCustomizationLayout to log metrics to SetupWizard.
    */
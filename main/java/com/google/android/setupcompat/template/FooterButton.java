@@ -33,6 +33,7 @@ import androidx.annotation.StringRes;
 import androidx.annotation.StyleRes;
 import com.google.android.setupcompat.R;
 import com.google.android.setupcompat.logging.CustomEvent;
+import com.google.android.setupcompat.util.ScreenTransitionTracker;
 import java.lang.annotation.Retention;
 import java.util.Locale;
 
@@ -222,6 +223,7 @@ public final class FooterButton implements OnClickListener {
   public void onClick(View v) {
     if (onClickListener != null) {
       clickCount++;
+      ScreenTransitionTracker.recordClick(v);
       onClickListener.onClick(v);
     }
   }
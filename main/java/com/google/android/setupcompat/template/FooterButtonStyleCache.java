@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.template;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+import android.util.StateSet;
+import androidx.annotation.ColorInt;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import java.util.WeakHashMap;
+
+/**
+ * Caches the color state lists and styled backgrounds {@link FooterButtonStyleUtils} applies to
+ * footer buttons. They only depend on a few partner values, so buttons styled with the same values
+ * share them across screens instead of allocating their own.
+ *
+ * <p>Color state lists are immutable and shared as is. Backgrounds are kept as the constant state
+ * of a private copy of the first styled background, so that they are not changed by the buttons
+ * using them.
+ */
+final class FooterButtonStyleCache {
+
+  @VisibleForTesting static final int MAX_ENTRIES = 16;
+
+  private static final int[][] BACKGROUND_TINT_STATES = {{-android.R.attr.state_enabled}, {}};
+  private static final int[][] RIPPLE_STATES = {
+    {android.R.attr.state_pressed}, {android.R.attr.state_focused}, StateSet.NOTHING
+  };
+
+  private static final LruCache<Long, ColorStateList> backgroundTints = new LruCache<>(MAX_ENTRIES);
+  private static final LruCache<Integer, ColorStateList> rippleColors = new LruCache<>(MAX_ENTRIES);
+  private static final LruCache<BackgroundKey, Drawable.ConstantState> backgrounds =
+      new LruCache<>(MAX_ENTRIES);
+  private static final WeakHashMap<Resources.Theme, Float> themeDisabledAlphas =
+      new WeakHashMap<>();
+
+  /** Returns the background tint for {@code color}, and {@code disabledColor} when disabled. */
+  static ColorStateList getBackgroundTint(@ColorInt int color, @ColorInt int disabledColor) {
+    Long key = ((long) color << 32) | (disabledColor & 0xffffffffL);
+    ColorStateList tint = backgroundTints.get(key);
+    if (tint == null) {
+      tint = new ColorStateList(BACKGROUND_TINT_STATES, new int[] {disabledColor, color});
+      backgroundTints.put(key, tint);
+    }
+    return tint;
+  }
+
+  /** Returns the ripple color showing {@code rippleColor} when pressed or focused. */
+  static ColorStateList getRippleColor(@ColorInt int rippleColor) {
+    ColorStateList ripple = rippleColors.get(rippleColor);
+    if (ripple == null) {
+      ripple =
+          new ColorStateList(
+              RIPPLE_STATES, new int[] {rippleColor, rippleColor, Color.TRANSPARENT});
+      rippleColors.put(rippleColor, ripple);
+    }
+    return ripple;
+  }
+
+  /** Returns {@code android:disabledAlpha} of the theme of {@code context}. */
+  static float getThemeDisabledAlpha(Context context, float defaultAlpha) {
+    Resources.Theme theme = context.getTheme();
+    synchronized (themeDisabledAlphas) {
+      Float alpha = themeDisabledAlphas.get(theme);
+      if (alpha == null) {
+        TypedArray a = context.obtainStyledAttributes(new int[] {android.R.attr.disabledAlpha});
+        alpha = a.getFloat(0, defaultAlpha);
+        a.recycle();
+        themeDisabledAlphas.put(theme, alpha);
+      }
+      return alpha;
+    }
+  }
+
+  /**
+   * Returns the background previously stored for a button inflated with {@code inflatedState} and
+   * styled with {@code rippleColor} and {@code radius}, or null.
+   */
+  @Nullable
+  static Drawable.ConstantState getBackground(
+      Drawable.ConstantState inflatedState, @ColorInt int rippleColor, float radius) {
+    return backgrounds.get(new BackgroundKey(inflatedState, rippleColor, radius));
+  }
+
+  /** Stores a copy of {@code styledBackground} to be returned by {@link #getBackground}. */
+  static void putBackground(
+      Drawable.ConstantState inflatedState,
+      @ColorInt int rippleColor,
+      float radius,
+      Drawable styledBackground,
+      Resources resources) {
+    Drawable.ConstantState styledState = styledBackground.getConstantState();
+    if (styledState == null) {
+      return;
+    }
+    // Mutating a new drawable gives it its own state, which no button will ever change.
+    Drawable.ConstantState copiedState =
+        styledState.newDrawable(resources).mutate().getConstantState();
+    if (copiedState != null) {
+      backgrounds.put(new BackgroundKey(inflatedState, rippleColor, radius), copiedState);
+    }
+  }
+
+  private static final class BackgroundKey {
+    private final Drawable.ConstantState inflatedState;
+    @ColorInt private final int rippleColor;
+    private final float radius;
+
+    BackgroundKey(Drawable.ConstantState inflatedState, @ColorInt int rippleColor, float radius) {
+      this.inflatedState = inflatedState;
+      this.rippleColor = rippleColor;
+      this.radius = radius;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof BackgroundKey)) {
+        return false;
+      }
+      BackgroundKey that = (BackgroundKey) o;
+      return inflatedState == that.inflatedState
+          && rippleColor == that.rippleColor
+          && Float.compare(radius, that.radius) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = System.identityHashCode(inflatedState);
+      result = 31 * result + rippleColor;
+      result = 31 * result + Float.floatToIntBits(radius);
+      return result;
+    }
+  }
+
+  private FooterButtonStyleCache() {}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.template;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Typeface;
+import androidx.annotation.ColorInt;
+import androidx.annotation.Nullable;
+import com.google.android.setupcompat.internal.FooterButtonPartnerConfig;
+import com.google.android.setupcompat.partnerconfig.PartnerConfig;
+import com.google.android.setupcompat.partnerconfig.PartnerConfigHelper;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The partner values of a {@link FooterButtonPartnerConfig}, resolved once so that they can be
+ * applied to every footer button with plain setters.
+ *
+ * <p>Plans are cached per set of partner configs. The cache is dropped whenever {@link
+ * PartnerConfigHelper} reloads the partner values or the configuration changes, so a plan always
+ * reflects the current partner snapshot. Plans are immutable.
+ */
+final class FooterButtonStylePlan {
+
+  @ColorInt final int textColor;
+  final boolean hasDisabledTextColor;
+  @ColorInt final int disabledTextColor;
+  @ColorInt final int backgroundColor;
+  final float disabledAlpha;
+  @ColorInt final int disabledBackgroundColor;
+  final float rippleAlpha;
+  final boolean hasMarginStart;
+  final int marginStart;
+  final float textSize;
+  final float minHeight;
+  @Nullable final Typeface typeface;
+  final float radius;
+
+  private static final Object lock = new Object();
+  private static WeakReference<PartnerConfigHelper> cachedSnapshot = new WeakReference<>(null);
+  @Nullable private static Configuration cachedConfiguration;
+  private static final HashMap<PlanKey, FooterButtonStylePlan> plans = new HashMap<>();
+
+  /** Returns the plan of {@code partnerConfig} for the current partner snapshot. */
+  static FooterButtonStylePlan get(Context context, FooterButtonPartnerConfig partnerConfig) {
+    PartnerConfigHelper helper = PartnerConfigHelper.get(context);
+    Configuration configuration = context.getResources().getConfiguration();
+    PlanKey key = new PlanKey(partnerConfig);
+    synchronized (lock) {
+      if (cachedSnapshot.get() != helper || !configuration.equals(cachedConfiguration)) {
+        plans.clear();
+        cachedSnapshot = new WeakReference<>(helper);
+        cachedConfiguration = new Configuration(configuration);
+      }
+      FooterButtonStylePlan plan = plans.get(key);
+      if (plan == null) {
+        plan = new FooterButtonStylePlan(context, helper, partnerConfig);
+        plans.put(key, plan);
+      }
+      return plan;
+    }
+  }
+
+  private FooterButtonStylePlan(
+      Context context, PartnerConfigHelper helper, FooterButtonPartnerConfig partnerConfig) {
+    textColor = helper.getColor(context, partnerConfig.getButtonTextColorConfig());
+    hasDisabledTextColor =
+        helper.isPartnerConfigAvailable(partnerConfig.getButtonDisableTextColorConfig());
+    disabledTextColor =
+        hasDisabledTextColor
+            ? helper.getColor(context, partnerConfig.getButtonDisableTextColorConfig())
+            : 0;
+    backgroundColor = helper.getColor(context, partnerConfig.getButtonBackgroundConfig());
+    disabledAlpha = helper.getFraction(context, partnerConfig.getButtonDisableAlphaConfig(), 0f);
+    disabledBackgroundColor =
+        helper.getColor(context, partnerConfig.getButtonDisableBackgroundConfig());
+    rippleAlpha = helper.getFraction(context, partnerConfig.getButtonRippleColorAlphaConfig());
+    hasMarginStart = helper.isPartnerConfigAvailable(partnerConfig.getButtonMarginStartConfig());
+    marginStart =
+        hasMarginStart
+            ? (int) helper.getDimension(context, partnerConfig.getButtonMarginStartConfig())
+            : 0;
+    textSize = helper.getDimension(context, partnerConfig.getButtonTextSizeConfig());
+    minHeight =
+        helper.isPartnerConfigAvailable(partnerConfig.getButtonMinHeightConfig())
+            ? helper.getDimension(context, partnerConfig.getButtonMinHeightConfig())
+            : 0;
+    int textStyle = Typeface.NORMAL;
+    if (helper.isPartnerConfigAvailable(partnerConfig.getButtonTextStyleConfig())) {
+      textStyle =
+          helper.getInteger(context, partnerConfig.getButtonTextStyleConfig(), Typeface.NORMAL);
+    }
+    typeface =
+        Typeface.create(
+            helper.getString(context, partnerConfig.getButtonTextTypeFaceConfig()), textStyle);
+    radius = helper.getDimension(context, partnerConfig.getButtonRadiusConfig());
+  }
+
+  /** The partner configs a plan is resolved from. The icon and theme are not part of the plan. */
+  private static final class PlanKey {
+    private final PartnerConfig[] configs;
+
+    PlanKey(FooterButtonPartnerConfig partnerConfig) {
+      configs =
+          new PartnerConfig[] {
+            partnerConfig.getButtonTextColorConfig(),
+            partnerConfig.getButtonDisableTextColorConfig(),
+            partnerConfig.getButtonBackgroundConfig(),
+            partnerConfig.getButtonDisableAlphaConfig(),
+            partnerConfig.getButtonDisableBackgroundConfig(),
+            partnerConfig.getButtonRippleColorAlphaConfig(),
+            partnerConfig.getButtonMarginStartConfig(),
+            partnerConfig.getButtonTextSizeConfig(),
+            partnerConfig.getButtonMinHeightConfig(),
+            partnerConfig.getButtonTextTypeFaceConfig(),
+            partnerConfig.getButtonTextStyleConfig(),
+            partnerConfig.getButtonRadiusConfig()
+          };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof PlanKey && Arrays.equals(configs, ((PlanKey) o).configs);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(configs);
+    }
+  }
+}
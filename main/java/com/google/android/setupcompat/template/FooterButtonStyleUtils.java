@@ -19,10 +19,8 @@ package com.google.android.setupcompat.template;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.ColorStateList;
-import android.content.res.TypedArray;
 import android.graphics.Color;
 import android.graphics.PorterDuff.Mode;
-import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
 import android.graphics.drawable.InsetDrawable;
@@ -30,7 +28,6 @@ import android.graphics.drawable.LayerDrawable;
 import android.graphics.drawable.RippleDrawable;
 import android.os.Build;
 import android.os.Build.VERSION_CODES;
-import android.util.StateSet;
 import android.util.TypedValue;
 import android.view.ViewGroup;
 import android.widget.Button;
@@ -41,14 +38,11 @@ import com.google.android.setupcompat.internal.FooterButtonPartnerConfig;
 import com.google.android.setupcompat.internal.Preconditions;
 import com.google.android.setupcompat.partnerconfig.PartnerConfig;
 import com.google.android.setupcompat.partnerconfig.PartnerConfigHelper;
-import java.util.HashMap;
 
 /** Utils for updating the button style. */
 public class FooterButtonStyleUtils {
   private static final float DEFAULT_DISABLED_ALPHA = 0.26f;
 
-  private static final HashMap<Integer, ColorStateList> defaultTextColor = new HashMap<>();
-
   /** Apply the partner primary button style to given {@code button}. */
   public static void applyPrimaryButtonPartnerResource(
       Context context, Button button, boolean applyDynamicColor) {
@@ -121,75 +115,125 @@ public class FooterButtonStyleUtils {
       boolean applyDynamicColor,
       boolean isButtonIconAtEnd,
       FooterButtonPartnerConfig footerButtonPartnerConfig) {
+    FooterButtonStylePlan plan = FooterButtonStylePlan.get(context, footerButtonPartnerConfig);
 
     // Save defualt text color for the partner config disable button text color not available.
     saveButtonDefaultTextColor(button);
 
+    // The ripple color and corner radius only depend on partner values, so the styled background
+    // is shared by the buttons styled with the same values.
+    boolean isBackgroundStyled =
+        Build.VERSION.SDK_INT >= VERSION_CODES.Q
+            && applyButtonBackgroundStyle(button, applyDynamicColor, plan);
+
     // If dynamic color enabled, these colors won't be overrode by partner config.
     // Instead, these colors align with the current theme colors.
     if (!applyDynamicColor) {
-      // use default disable color util we support the partner disable text color
-      if (button.isEnabled()) {
-        FooterButtonStyleUtils.updateButtonTextEnabledColorWithPartnerConfig(
-            context, button, footerButtonPartnerConfig.getButtonTextColorConfig());
-      } else {
-        FooterButtonStyleUtils.updateButtonTextDisabledColorWithPartnerConfig(
-            context, button, footerButtonPartnerConfig.getButtonDisableTextColorConfig());
+      updateButtonTextColorWithStates(button, plan);
+      Preconditions.checkArgument(
+          Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q,
+          "Update button background only support on sdk Q or higher");
+      updateButtonBackgroundTintList(
+          context, button, plan.backgroundColor, plan.disabledAlpha, plan.disabledBackgroundColor);
+    }
+    if (!isBackgroundStyled && Build.VERSION.SDK_INT >= VERSION_CODES.LOLLIPOP) {
+      updateButtonRippleColor(button, getRippleColor(button, applyDynamicColor, plan));
+    }
+    if (plan.hasMarginStart && button.getLayoutParams() instanceof ViewGroup.MarginLayoutParams) {
+      ViewGroup.MarginLayoutParams mlp = (ViewGroup.MarginLayoutParams) button.getLayoutParams();
+      mlp.setMargins(plan.marginStart, mlp.topMargin, mlp.rightMargin, mlp.bottomMargin);
+    }
+    if (plan.textSize > 0) {
+      button.setTextSize(TypedValue.COMPLEX_UNIT_PX, plan.textSize);
+    }
+    if (plan.minHeight > 0) {
+      button.setMinHeight((int) plan.minHeight);
+    }
+    if (plan.typeface != null) {
+      button.setTypeface(plan.typeface);
+    }
+    if (!isBackgroundStyled && Build.VERSION.SDK_INT >= VERSION_CODES.N) {
+      GradientDrawable gradientDrawable = getGradientDrawable(button);
+      if (gradientDrawable != null) {
+        gradientDrawable.setCornerRadius(plan.radius);
       }
-      FooterButtonStyleUtils.updateButtonBackgroundWithPartnerConfig(
-          context,
-          button,
-          footerButtonPartnerConfig.getButtonBackgroundConfig(),
-          footerButtonPartnerConfig.getButtonDisableAlphaConfig(),
-          footerButtonPartnerConfig.getButtonDisableBackgroundConfig());
     }
-    FooterButtonStyleUtils.updateButtonRippleColorWithPartnerConfig(
-        context,
-        button,
-        applyDynamicColor,
-        footerButtonPartnerConfig.getButtonTextColorConfig(),
-        footerButtonPartnerConfig.getButtonRippleColorAlphaConfig());
-    FooterButtonStyleUtils.updateButtonMarginStartWithPartnerConfig(
-        context, button, footerButtonPartnerConfig.getButtonMarginStartConfig());
-    FooterButtonStyleUtils.updateButtonTextSizeWithPartnerConfig(
-        context, button, footerButtonPartnerConfig.getButtonTextSizeConfig());
-    FooterButtonStyleUtils.updateButtonMinHeightWithPartnerConfig(
-        context, button, footerButtonPartnerConfig.getButtonMinHeightConfig());
-    FooterButtonStyleUtils.updateButtonTypeFaceWithPartnerConfig(
-        context,
-        button,
-        footerButtonPartnerConfig.getButtonTextTypeFaceConfig(),
-        footerButtonPartnerConfig.getButtonTextStyleConfig());
-    FooterButtonStyleUtils.updateButtonRadiusWithPartnerConfig(
-        context, button, footerButtonPartnerConfig.getButtonRadiusConfig());
     FooterButtonStyleUtils.updateButtonIconWithPartnerConfig(
         context, button, footerButtonPartnerConfig.getButtonIconConfig(), isButtonIconAtEnd);
   }
 
-  static void updateButtonTextEnabledColorWithPartnerConfig(
-      Context context, Button button, PartnerConfig buttonEnableTextColorConfig) {
-    @ColorInt
-    int color = PartnerConfigHelper.get(context).getColor(context, buttonEnableTextColorConfig);
-    updateButtonTextEnabledColor(button, color);
+  /**
+   * Applies the partner ripple color and corner radius to the background of {@code button}, reusing
+   * the background of a previous button inflated with the same background and styled with the same
+   * values.
+   *
+   * @return whether the background was styled.
+   */
+  @TargetApi(VERSION_CODES.Q)
+  private static boolean applyButtonBackgroundStyle(
+      Button button, boolean applyDynamicColor, FooterButtonStylePlan plan) {
+    Drawable background = button.getBackground();
+    Drawable.ConstantState inflatedState =
+        background != null ? background.getConstantState() : null;
+    if (inflatedState == null) {
+      return false;
+    }
+    @ColorInt int rippleColor = getRippleColor(button, applyDynamicColor, plan);
+
+    Drawable.ConstantState styledState =
+        FooterButtonStyleCache.getBackground(inflatedState, rippleColor, plan.radius);
+    if (styledState != null) {
+      // setBackground resets the padding to the padding of the background, keep the style's.
+      int paddingStart = button.getPaddingStart();
+      int paddingTop = button.getPaddingTop();
+      int paddingEnd = button.getPaddingEnd();
+      int paddingBottom = button.getPaddingBottom();
+      button.setBackground(styledState.newDrawable(button.getResources()).mutate());
+      button.setPaddingRelative(paddingStart, paddingTop, paddingEnd, paddingBottom);
+      return true;
+    }
+    // Style a private copy, the inflated background state may be shared with other views.
+    background.mutate();
+    updateButtonRippleColor(button, rippleColor);
+    GradientDrawable gradientDrawable = getGradientDrawable(button);
+    if (gradientDrawable != null) {
+      gradientDrawable.setCornerRadius(plan.radius);
+    }
+    FooterButtonStyleCache.putBackground(
+        inflatedState, rippleColor, plan.radius, button.getBackground(), button.getResources());
+    return true;
   }
 
-  static void updateButtonTextEnabledColor(Button button, @ColorInt int textColor) {
-    if (textColor != Color.TRANSPARENT) {
-      button.setTextColor(ColorStateList.valueOf(textColor));
-    }
+  @ColorInt
+  private static int getRippleColor(
+      Button button, boolean applyDynamicColor, FooterButtonStylePlan plan) {
+    // Dynamic color uses the text color of the theme, otherwise the partner text color.
+    @ColorInt
+    int textDefaultColor =
+        applyDynamicColor ? button.getTextColors().getDefaultColor() : plan.textColor;
+    return convertRgbToArgb(textDefaultColor, plan.rippleAlpha);
   }
 
-  static void updateButtonTextDisabledColorWithPartnerConfig(
-      Context context, Button button, PartnerConfig buttonDisableTextColorConfig) {
-    if (PartnerConfigHelper.get(context).isPartnerConfigAvailable(buttonDisableTextColorConfig)) {
-      @ColorInt
-      int color = PartnerConfigHelper.get(context).getColor(context, buttonDisableTextColorConfig);
-      updateButtonTextDisabledColor(button, color);
+  /**
+   * Applies the partner text color of {@code plan} for the current enabled state of {@code button}.
+   */
+  static void updateButtonTextColorWithStates(Button button, FooterButtonStylePlan plan) {
+    // use default disable color util we support the partner disable text color
+    if (button.isEnabled()) {
+      updateButtonTextEnabledColor(button, plan.textColor);
+    } else if (plan.hasDisabledTextColor) {
+      updateButtonTextDisabledColor(button, plan.disabledTextColor);
     } else {
       updateButtonTextDisableDefaultColor(button, getButtonDefaultTextCorlor(button));
     }
   }
 
+  static void updateButtonTextEnabledColor(Button button, @ColorInt int textColor) {
+    if (textColor != Color.TRANSPARENT) {
+      button.setTextColor(ColorStateList.valueOf(textColor));
+    }
+  }
+
   static void updateButtonTextDisabledColor(Button button, @ColorInt int textColor) {
     if (textColor != Color.TRANSPARENT) {
       button.setTextColor(ColorStateList.valueOf(textColor));
@@ -200,27 +244,6 @@ public class FooterButtonStyleUtils {
     button.setTextColor(disabledTextColor);
   }
 
-  @TargetApi(VERSION_CODES.Q)
-  static void updateButtonBackgroundWithPartnerConfig(
-      Context context,
-      Button button,
-      PartnerConfig buttonBackgroundConfig,
-      PartnerConfig buttonDisableAlphaConfig,
-      PartnerConfig buttonDisableBackgroundConfig) {
-    Preconditions.checkArgument(
-        Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q,
-        "Update button background only support on sdk Q or higher");
-    @ColorInt
-    int color = PartnerConfigHelper.get(context).getColor(context, buttonBackgroundConfig);
-    float disabledAlpha =
-        PartnerConfigHelper.get(context).getFraction(context, buttonDisableAlphaConfig, 0f);
-    @ColorInt
-    int disabledColor =
-        PartnerConfigHelper.get(context).getColor(context, buttonDisableBackgroundConfig);
-
-    updateButtonBackgroundTintList(context, button, color, disabledAlpha, disabledColor);
-  }
-
   @TargetApi(VERSION_CODES.Q)
   static void updateButtonBackgroundTintList(
       Context context,
@@ -228,16 +251,11 @@ public class FooterButtonStyleUtils {
       @ColorInt int color,
       float disabledAlpha,
       @ColorInt int disabledColor) {
-    int[] DISABLED_STATE_SET = {-android.R.attr.state_enabled};
-    int[] ENABLED_STATE_SET = {};
-
     if (color != Color.TRANSPARENT) {
       if (disabledAlpha <= 0f) {
         // if no partner resource, fallback to theme disable alpha
-        TypedArray a = context.obtainStyledAttributes(new int[] {android.R.attr.disabledAlpha});
-        float alpha = a.getFloat(0, DEFAULT_DISABLED_ALPHA);
-        a.recycle();
-        disabledAlpha = alpha;
+        disabledAlpha =
+            FooterButtonStyleCache.getThemeDisabledAlpha(context, DEFAULT_DISABLED_ALPHA);
       }
       if (disabledColor == Color.TRANSPARENT) {
         // if no partner resource, fallback to button background color
@@ -246,9 +264,8 @@ public class FooterButtonStyleUtils {
 
       // Set text color for ripple.
       ColorStateList colorStateList =
-          new ColorStateList(
-              new int[][] {DISABLED_STATE_SET, ENABLED_STATE_SET},
-              new int[] {convertRgbToArgb(disabledColor, disabledAlpha), color});
+          FooterButtonStyleCache.getBackgroundTint(
+              color, convertRgbToArgb(disabledColor, disabledAlpha));
 
       // b/129482013: When a LayerDrawable is mutated, a new clone of its children drawables are
       // created, but without copying the state from the parent drawable. So even though the
@@ -262,32 +279,7 @@ public class FooterButtonStyleUtils {
     }
   }
 
-  @TargetApi(VERSION_CODES.Q)
-  static void updateButtonRippleColorWithPartnerConfig(
-      Context context,
-      Button button,
-      boolean applyDynamicColor,
-      PartnerConfig buttonTextColorConfig,
-      PartnerConfig buttonRippleColorAlphaConfig) {
-    if (Build.VERSION.SDK_INT >= VERSION_CODES.LOLLIPOP) {
-
-      @ColorInt int textDefaultColor;
-      if (applyDynamicColor) {
-        // Get dynamic text color
-        textDefaultColor = button.getTextColors().getDefaultColor();
-      } else {
-        // Get partner text color.
-        textDefaultColor =
-            PartnerConfigHelper.get(context).getColor(context, buttonTextColorConfig);
-      }
-      float alpha =
-          PartnerConfigHelper.get(context).getFraction(context, buttonRippleColorAlphaConfig);
-      updateButtonRippleColor(button, textDefaultColor, alpha);
-    }
-  }
-
-  private static void updateButtonRippleColor(
-      Button button, @ColorInt int textColor, float rippleAlpha) {
+  private static void updateButtonRippleColor(Button button, @ColorInt int rippleColor) {
     // RippleDrawable is available after sdk 21. And because on lower sdk the RippleDrawable is
     // unavailable. Since Stencil customization provider only works on Q+, there is no need to
     // perform any customization for versions 21.
@@ -297,78 +289,8 @@ public class FooterButtonStyleUtils {
         return;
       }
 
-      int[] pressedState = {android.R.attr.state_pressed};
-      int[] focusState = {android.R.attr.state_focused};
-      int argbColor = convertRgbToArgb(textColor, rippleAlpha);
-
       // Set text color for ripple.
-      ColorStateList colorStateList =
-          new ColorStateList(
-              new int[][] {pressedState, focusState, StateSet.NOTHING},
-              new int[] {argbColor, argbColor, Color.TRANSPARENT});
-      rippleDrawable.setColor(colorStateList);
-    }
-  }
-
-  static void updateButtonMarginStartWithPartnerConfig(
-      Context context, Button button, PartnerConfig buttonMarginStartConfig) {
-    ViewGroup.LayoutParams lp = button.getLayoutParams();
-    boolean partnerConfigAvailable =
-        PartnerConfigHelper.get(context).isPartnerConfigAvailable(buttonMarginStartConfig);
-    if (partnerConfigAvailable && lp instanceof ViewGroup.MarginLayoutParams) {
-      final ViewGroup.MarginLayoutParams mlp = (ViewGroup.MarginLayoutParams) lp;
-      int startMargin =
-          (int) PartnerConfigHelper.get(context).getDimension(context, buttonMarginStartConfig);
-      mlp.setMargins(startMargin, mlp.topMargin, mlp.rightMargin, mlp.bottomMargin);
-    }
-  }
-
-  static void updateButtonTextSizeWithPartnerConfig(
-      Context context, Button button, PartnerConfig buttonTextSizeConfig) {
-    float size = PartnerConfigHelper.get(context).getDimension(context, buttonTextSizeConfig);
-    if (size > 0) {
-      button.setTextSize(TypedValue.COMPLEX_UNIT_PX, size);
-    }
-  }
-
-  static void updateButtonMinHeightWithPartnerConfig(
-      Context context, Button button, PartnerConfig buttonMinHeightConfig) {
-    if (PartnerConfigHelper.get(context).isPartnerConfigAvailable(buttonMinHeightConfig)) {
-      float size = PartnerConfigHelper.get(context).getDimension(context, buttonMinHeightConfig);
-      if (size > 0) {
-        button.setMinHeight((int) size);
-      }
-    }
-  }
-
-  static void updateButtonTypeFaceWithPartnerConfig(
-      Context context,
-      Button button,
-      PartnerConfig buttonTextTypeFaceConfig,
-      PartnerConfig buttonTextStyleConfig) {
-    String fontFamilyName =
-        PartnerConfigHelper.get(context).getString(context, buttonTextTypeFaceConfig);
-
-    int textStyleValue = Typeface.NORMAL;
-    if (PartnerConfigHelper.get(context).isPartnerConfigAvailable(buttonTextStyleConfig)) {
-      textStyleValue =
-          PartnerConfigHelper.get(context)
-              .getInteger(context, buttonTextStyleConfig, Typeface.NORMAL);
-    }
-    Typeface font = Typeface.create(fontFamilyName, textStyleValue);
-    if (font != null) {
-      button.setTypeface(font);
-    }
-  }
-
-  static void updateButtonRadiusWithPartnerConfig(
-      Context context, Button button, PartnerConfig buttonRadiusConfig) {
-    if (Build.VERSION.SDK_INT >= VERSION_CODES.N) {
-      float radius = PartnerConfigHelper.get(context).getDimension(context, buttonRadiusConfig);
-      GradientDrawable gradientDrawable = getGradientDrawable(button);
-      if (gradientDrawable != null) {
-        gradientDrawable.setCornerRadius(radius);
-      }
+      rippleDrawable.setColor(FooterButtonStyleCache.getRippleColor(rippleColor));
     }
   }
 
@@ -414,19 +336,18 @@ public class FooterButtonStyleUtils {
     button.getBackground().mutate().setColorFilter(color, Mode.SRC_ATOP);
   }
 
+  // The default text color is kept on the button itself, so that it goes away with the button.
   private static void saveButtonDefaultTextColor(Button button) {
-    defaultTextColor.put(button.getId(), button.getTextColors());
+    button.setTag(R.id.suc_customization_default_text_color, button.getTextColors());
   }
 
   private static ColorStateList getButtonDefaultTextCorlor(Button button) {
-    if (!defaultTextColor.containsKey(button.getId())) {
+    ColorStateList defaultTextColor =
+        (ColorStateList) button.getTag(R.id.suc_customization_default_text_color);
+    if (defaultTextColor == null) {
       throw new IllegalStateException("There is no saved default color for button");
     }
-    return defaultTextColor.get(button.getId());
-  }
-
-  static void clearSavedDefaultTextColor() {
-    defaultTextColor.clear();
+    return defaultTextColor;
   }
 
   @VisibleForTesting
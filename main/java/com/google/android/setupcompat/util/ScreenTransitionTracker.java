@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.setupcompat.util;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewParent;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Carries the time of a footer button click to the next setup screen, so that the latency from
+ * the click to the first frame of the next screen can be measured.
+ *
+ * <p>The click is stamped with {@link SystemClock#elapsedRealtime()}, which is monotonic and shared
+ * by every process, and is attached to the intent built by {@link
+ * WizardManagerHelper#getNextIntent(Intent, int, Intent)} together with the source screen name.
+ */
+public final class ScreenTransitionTracker {
+
+  /** Extra holding the {@link SystemClock#elapsedRealtime()} of the click leaving a screen. */
+  @VisibleForTesting
+  static final String EXTRA_TRANSITION_CLICK_TIME = "com.android.setupwizard.TransitionClickTime";
+
+  /** Extra holding the class name of the screen the click happened on. */
+  @VisibleForTesting
+  static final String EXTRA_TRANSITION_SOURCE_SCREEN =
+      "com.android.setupwizard.TransitionSourceScreen";
+
+  /** Clicks older than this when the next intent is built are not attributed to it. */
+  @VisibleForTesting static final long MAX_CLICK_AGE_MS = 5000;
+
+  private static long lastClickTimeMillis = 0;
+  @Nullable private static String lastClickScreenName;
+
+  /** Records a click on {@code view} that may lead to the next screen. */
+  public static void recordClick(View view) {
+    // Views that are not inflated with an activity context, like pooled footer buttons, find the
+    // activity through their parents.
+    Activity activity = null;
+    View current = view;
+    while (activity == null && current != null) {
+      activity = findActivity(current.getContext());
+      ViewParent parent = current.getParent();
+      current = parent instanceof View ? (View) parent : null;
+    }
+    recordClickInActivity(activity);
+  }
+
+  /** Records a click that may lead to the next screen, made in a view of {@code context}. */
+  public static void recordClick(Context context) {
+    recordClickInActivity(findActivity(context));
+  }
+
+  private static synchronized void recordClickInActivity(@Nullable Activity activity) {
+    lastClickTimeMillis = SystemClock.elapsedRealtime();
+    lastClickScreenName = activity != null ? activity.getComponentName().getClassName() : null;
+  }
+
+  /**
+   * Attaches the last recorded click to {@code intent} and forgets it, or removes any stale click
+   * from {@code intent} when no click was recorded recently.
+   */
+  static synchronized void attachToIntent(Intent intent) {
+    long clickTimeMillis = lastClickTimeMillis;
+    lastClickTimeMillis = 0;
+    if (clickTimeMillis == 0
+        || SystemClock.elapsedRealtime() - clickTimeMillis > MAX_CLICK_AGE_MS) {
+      intent.removeExtra(EXTRA_TRANSITION_CLICK_TIME);
+      intent.removeExtra(EXTRA_TRANSITION_SOURCE_SCREEN);
+      return;
+    }
+    intent.putExtra(EXTRA_TRANSITION_CLICK_TIME, clickTimeMillis);
+    intent.putExtra(EXTRA_TRANSITION_SOURCE_SCREEN, lastClickScreenName);
+  }
+
+  /** Copies the transition extras of {@code srcIntent}, if any, to {@code dstIntent}. */
+  static void copyExtras(Intent srcIntent, Intent dstIntent) {
+    if (srcIntent.hasExtra(EXTRA_TRANSITION_CLICK_TIME)) {
+      dstIntent.putExtra(
+          EXTRA_TRANSITION_CLICK_TIME, srcIntent.getLongExtra(EXTRA_TRANSITION_CLICK_TIME, 0));
+      dstIntent.putExtra(
+          EXTRA_TRANSITION_SOURCE_SCREEN, srcIntent.getStringExtra(EXTRA_TRANSITION_SOURCE_SCREEN));
+    }
+  }
+
+  /**
+   * Returns the time elapsed since the click that started the screen of {@code intent} and removes
+   * the click from {@code intent}, so that it is reported once.
+   *
+   * @return the latency in milliseconds, or -1 if {@code intent} carries no click.
+   */
+  public static long consumeClickLatencyMillis(Intent intent) {
+    long clickTimeMillis = intent.getLongExtra(EXTRA_TRANSITION_CLICK_TIME, 0);
+    intent.removeExtra(EXTRA_TRANSITION_CLICK_TIME);
+    if (clickTimeMillis <= 0) {
+      return -1;
+    }
+    return SystemClock.elapsedRealtime() - clickTimeMillis;
+  }
+
+  /** Returns the class name of the screen the click carried by {@code intent} happened on. */
+  @Nullable
+  public static String getSourceScreen(Intent intent) {
+    return intent.getStringExtra(EXTRA_TRANSITION_SOURCE_SCREEN);
+  }
+
+  @Nullable
+  private static Activity findActivity(Context context) {
+    while (context instanceof ContextWrapper) {
+      if (context instanceof Activity) {
+        return (Activity) context;
+      }
+      context = ((ContextWrapper) context).getBaseContext();
+    }
+    return null;
+  }
+
+  private ScreenTransitionTracker() {
+    throw new AssertionError("Should not be instantiated");
+  }
+}
@@ -105,6 +105,7 @@ public final class WizardManagerHelper {
       intent.putExtras(data.getExtras());
     }
     intent.putExtra(EXTRA_THEME, originalIntent.getStringExtra(EXTRA_THEME));
+    ScreenTransitionTracker.attachToIntent(intent);
 
     return intent;
   }
@@ -133,6 +134,7 @@ public final class WizardManagerHelper {
     for (String key : Arrays.asList(EXTRA_THEME, EXTRA_SCRIPT_URI, EXTRA_ACTION_ID)) {
       dstIntent.putExtra(key, srcIntent.getStringExtra(key));
     }
+    ScreenTransitionTracker.copyExtras(srcIntent, dstIntent);
   }
 
   /** @deprecated Use {@link isInitialSetupWizard} instead. */
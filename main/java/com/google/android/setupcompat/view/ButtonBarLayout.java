@@ -17,6 +17,7 @@
 package com.google.android.setupcompat.view;
 
 import android.content.Context;
+import android.content.res.Configuration;
 import android.util.AttributeSet;
 import android.view.Gravity;
 import android.view.View;
@@ -37,6 +38,21 @@ public class ButtonBarLayout extends LinearLayout {
   private int originalPaddingLeft;
   private int originalPaddingRight;
 
+  // Whether the configuration allows evenly weighted buttons, resolved once per configuration
+  // since it may need a call to the partner config provider.
+  private int evenlyWeightedSmallestScreenWidthDp = -1;
+  private boolean isEvenlyWeightedScreen;
+
+  // The outcome of the last full measure pass with an exact width, reused by the next passes with
+  // the same width as long as no child changed.
+  private boolean hasLastMeasureOutcome = false;
+  private int lastWidthSize;
+  private int lastHeightMeasureSpec;
+  private int lastChildCount;
+  private int lastPaddingLeft;
+  private int lastPaddingRight;
+  private boolean lastStacked;
+
   public ButtonBarLayout(Context context) {
     super(context);
   }
@@ -48,13 +64,21 @@ public class ButtonBarLayout extends LinearLayout {
   @Override
   protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
     final int widthSize = MeasureSpec.getSize(widthMeasureSpec);
+    final boolean isExactWidth = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.EXACTLY;
+
+    if (isExactWidth && canReuseLastMeasureOutcome(widthSize, heightMeasureSpec)) {
+      // Whether the buttons fit is already known, measure once in the right orientation.
+      setStacked(lastStacked);
+      super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+      return;
+    }
 
     setStacked(false);
 
     boolean needsRemeasure = false;
 
     int initialWidthMeasureSpec = widthMeasureSpec;
-    if (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.EXACTLY) {
+    if (isExactWidth) {
       // Measure with WRAP_CONTENT, so that we can compare the measured size with the
       // available size to see if we need to stack.
       initialWidthMeasureSpec = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
@@ -75,6 +99,41 @@ public class ButtonBarLayout extends LinearLayout {
     if (needsRemeasure) {
       super.onMeasure(widthMeasureSpec, heightMeasureSpec);
     }
+
+    hasLastMeasureOutcome = isExactWidth;
+    lastWidthSize = widthSize;
+    lastHeightMeasureSpec = heightMeasureSpec;
+    lastChildCount = getChildCount();
+    lastPaddingLeft = getPaddingLeft();
+    lastPaddingRight = getPaddingRight();
+    lastStacked = stacked;
+  }
+
+  @Override
+  protected void onConfigurationChanged(Configuration newConfig) {
+    super.onConfigurationChanged(newConfig);
+    evenlyWeightedSmallestScreenWidthDp = -1;
+    hasLastMeasureOutcome = false;
+  }
+
+  private boolean canReuseLastMeasureOutcome(int widthSize, int heightMeasureSpec) {
+    if (!hasLastMeasureOutcome
+        || widthSize != lastWidthSize
+        || heightMeasureSpec != lastHeightMeasureSpec
+        || getChildCount() != lastChildCount
+        // The padding of the bar itself, e.g. from FooterBarMixin, changes without any child
+        // requesting layout.
+        || getPaddingLeft() != lastPaddingLeft
+        || getPaddingRight() != lastPaddingRight) {
+      return false;
+    }
+    // A child requesting layout, e.g. for a new text, may no longer fit.
+    for (int i = 0; i < getChildCount(); i++) {
+      if (getChildAt(i).isLayoutRequested()) {
+        return false;
+      }
+    }
+    return true;
   }
 
   private void setStacked(boolean stacked) {
@@ -138,11 +197,13 @@ public class ButtonBarLayout extends LinearLayout {
     }
 
     // TODO: Support neutral button style in glif layout for phone and tablet
-    if (context.getResources().getConfiguration().smallestScreenWidthDp >= 600
-        && PartnerConfigHelper.shouldApplyExtendedPartnerConfig(context)) {
-      return true;
-    } else {
-      return false;
+    int smallestScreenWidthDp = context.getResources().getConfiguration().smallestScreenWidthDp;
+    if (smallestScreenWidthDp != evenlyWeightedSmallestScreenWidthDp) {
+      evenlyWeightedSmallestScreenWidthDp = smallestScreenWidthDp;
+      isEvenlyWeightedScreen =
+          smallestScreenWidthDp >= 600
+              && PartnerConfigHelper.shouldApplyExtendedPartnerConfig(context);
     }
+    return isEvenlyWeightedScreen;
   }
 }